@@ -0,0 +1,231 @@
+/* Admission stage in front of a sampler's EdgeTable, so that edges seen once do not churn through the sample.
+ * Most edges of call data occur once: SBias inserts each and prunes it at the next threshold sweep, a reservoir evicts
+ * a long lived edge to make room for it. With a filter an edge that is not in the sample yet only enters it once its
+ * estimated count reaches minCount, edges in the sample are updated as before.
+ * The estimate is TinyLFU's: a doorkeeper bitset takes the first occurrence of a key, later ones go to a Count-Min
+ * sketch of 4 bit counters with conservative update, and the estimate is the sketch minimum plus the doorkeeper bit.
+ * The sketch has depth rows of width counters: width is e / epsilon rounded up to a power of two and depth
+ * ln(1 / delta), so a count is overestimated by at most epsilon times the occurrences counted since the last aging,
+ * with probability 1 - delta. Counters saturate at 15.
+ * Aging halves every counter and clears the doorkeeper, so old activity fades like the sampler's weights. The sampler
+ * calls endOfTimestep at its timestep changes and the filter ages there once period occurrences have been counted
+ * since the last aging, so aging falls on timestep boundaries.
+ * offered, admitted and rejected count the decisions on edges new to the sample: every rejection is one table insert
+ * and its later removal or replacement that did not happen, report prints them with the size of the sketch.
+ */
+package dynamic.sampling;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+public class AdmissionFilter {
+	private static final int MAX_COUNTER = 15;
+	// halves sixteen 4 bit counters at once
+	private static final long HALF_MASK = 0x7777777777777777L;
+
+	private final int minCount;
+	private final double epsilon;
+	private final double delta;
+	private final long period;
+	private final int depth;
+	private final int widthMask;
+	// row r, counter c: bits (c & 15) * 4 of counters[r * width / 16 + c / 16]
+	private final long[] counters;
+	private final long[] doorkeeper;
+	private final int doorkeeperMask;
+	private long sinceAging = 0;
+	private long offered = 0;
+	private long admitted = 0;
+
+	/**
+	 * A filter admitting edges estimated to occur at least minCount times, 2 to 16, with the error bounds epsilon and
+	 * delta, aging at the first endOfTimestep after period counted occurrences.
+	 */
+	public AdmissionFilter(int minCount, double epsilon, double delta, long period) {
+		if (minCount < 2 || minCount > MAX_COUNTER + 1)
+			throw new IllegalArgumentException("Admission count must be between 2 and " + (MAX_COUNTER + 1) + ": "
+					+ minCount);
+		if (!(epsilon > 0 && epsilon < 1) || !(delta > 0 && delta < 1))
+			throw new IllegalArgumentException("Sketch errors must be between 0 and 1: epsilon " + epsilon + ", delta "
+					+ delta);
+		if (period <= 0)
+			throw new IllegalArgumentException("Aging period must be positive: " + period);
+		this.minCount = minCount;
+		this.epsilon = epsilon;
+		this.delta = delta;
+		this.period = period;
+		// one long of 16 counters at least, at most 2^27 counters per row
+		long wanted = (long) Math.ceil(Math.E / epsilon);
+		int width = (int) Math.min(1 << 27, Math.max(16, Long.highestOneBit(wanted - 1) << 1));
+		this.widthMask = width - 1;
+		this.depth = (int) Math.max(1, Math.ceil(Math.log(1 / delta)));
+		this.counters = new long[depth * (width >>> 4)];
+		// eight doorkeeper bits per counter of a row keep its false positives near 5% at width distinct keys
+		this.doorkeeper = new long[width >>> 3];
+		this.doorkeeperMask = (width << 3) - 1;
+	}
+
+	/**
+	 * Counts one occurrence of an edge that is not in the sample and returns whether it may enter it now.
+	 * Edges already in the sample need not be offered.
+	 */
+	public boolean admit(long key) {
+		return decide(add(key));
+	}
+
+	/** Decides on an edge new to the sample whose occurrence was counted by add, which returned estimate. */
+	public boolean decide(int estimate) {
+		offered++;
+		if (estimate >= minCount) {
+			admitted++;
+			return true;
+		}
+		return false;
+	}
+
+	/** Counts one occurrence of the key and returns its estimated count since the last aging, this one included. */
+	public int add(long key) {
+		sinceAging++;
+		long h = key * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 29;
+		int h1 = (int) h;
+		int h2 = (int) (h >>> 32) | 1;
+		int d1 = h1 & doorkeeperMask;
+		int d2 = (h1 + h2) & doorkeeperMask;
+		long b1 = 1L << d1;
+		long b2 = 1L << d2;
+		if ((doorkeeper[d1 >>> 6] & b1) == 0 || (doorkeeper[d2 >>> 6] & b2) == 0) {
+			doorkeeper[d1 >>> 6] |= b1;
+			doorkeeper[d2 >>> 6] |= b2;
+			return 1;
+		}
+		// conservative update: only the counters at the minimum grow, the others already overestimate
+		int min = MAX_COUNTER;
+		for (int r = 0; r < depth; r++)
+			min = Math.min(min, counter(r, h1 + r * h2));
+		if (min < MAX_COUNTER) {
+			for (int r = 0; r < depth; r++)
+				if (counter(r, h1 + r * h2) == min)
+					increment(r, h1 + r * h2);
+			min++;
+		}
+		return min + 1;
+	}
+
+	private int counter(int row, int hash) {
+		int c = hash & widthMask;
+		int i = row * ((widthMask + 1) >>> 4) + (c >>> 4);
+		return (int) (counters[i] >>> ((c & 15) << 2)) & MAX_COUNTER;
+	}
+
+	private void increment(int row, int hash) {
+		int c = hash & widthMask;
+		int i = row * ((widthMask + 1) >>> 4) + (c >>> 4);
+		counters[i] += 1L << ((c & 15) << 2);
+	}
+
+	/** Ages the filter once period occurrences were counted since the last aging, called at timestep changes. */
+	public void endOfTimestep() {
+		if (sinceAging >= period)
+			age();
+	}
+
+	/** Halves every counter and forgets the doorkeeper. */
+	public void age() {
+		for (int i = 0; i < counters.length; i++)
+			counters[i] = (counters[i] >>> 1) & HALF_MASK;
+		Arrays.fill(doorkeeper, 0L);
+		sinceAging = 0;
+	}
+
+	/** Edges new to the sample the filter decided on. */
+	public long offered() {
+		return offered;
+	}
+
+	public long admitted() {
+		return admitted;
+	}
+
+	/** Table inserts, and the removals or replacements that would have followed them, that did not happen. */
+	public long rejected() {
+		return offered - admitted;
+	}
+
+	/** Bytes of the sketch and the doorkeeper. */
+	public long bytes() {
+		return 8L * (counters.length + doorkeeper.length);
+	}
+
+	/** One line for the console: the decisions so far and the churn the rejections saved. */
+	public String report() {
+		return String.format(Locale.ROOT,
+				"Admission: %d new edges offered, %d admitted, %d rejected (%.1f%%), so %d table inserts and their"
+						+ " removals avoided, sketch %d KB",
+				offered, admitted, rejected(), offered == 0 ? 0.0 : 100.0 * rejected() / offered, rejected(),
+				bytes() >> 10);
+	}
+
+	/**
+	 * Writes whether the sampler has a filter, then its state, so that readState can tell a checkpoint written with
+	 * another filter configuration from its own.
+	 */
+	public static void writeTo(DataOutput out, AdmissionFilter filter) throws IOException {
+		out.writeBoolean(filter != null);
+		if (filter != null)
+			filter.writeTo(out);
+	}
+
+	/** Reads what writeTo(out, filter) wrote into filter, which must be configured like the one that was written. */
+	public static void readFrom(DataInput in, AdmissionFilter filter) throws IOException {
+		boolean written = in.readBoolean();
+		if (written && filter == null)
+			throw new IOException("Checkpoint has an admission filter but none is configured");
+		if (!written && filter != null)
+			throw new IOException("Checkpoint has no admission filter but one is configured");
+		if (filter != null)
+			filter.readFrom(in);
+	}
+
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(minCount);
+		out.writeDouble(epsilon);
+		out.writeDouble(delta);
+		out.writeLong(period);
+		out.writeInt(widthMask + 1);
+		out.writeInt(depth);
+		out.writeLong(sinceAging);
+		out.writeLong(offered);
+		out.writeLong(admitted);
+		for (long c : counters)
+			out.writeLong(c);
+		for (long b : doorkeeper)
+			out.writeLong(b);
+	}
+
+	public void readFrom(DataInput in) throws IOException {
+		int minCount = in.readInt();
+		double epsilon = in.readDouble();
+		double delta = in.readDouble();
+		long period = in.readLong();
+		int width = in.readInt();
+		int depth = in.readInt();
+		if (minCount != this.minCount || epsilon != this.epsilon || delta != this.delta || period != this.period
+				|| width != widthMask + 1 || depth != this.depth)
+			throw new IOException(String.format(Locale.ROOT,
+					"Checkpoint was written with another admission filter: count %d, epsilon %s, delta %s, period %d,"
+							+ " width %d, depth %d instead of %d, %s, %s, %d, %d, %d",
+					minCount, epsilon, delta, period, width, depth, this.minCount, this.epsilon, this.delta,
+					this.period, widthMask + 1, this.depth));
+		sinceAging = in.readLong();
+		offered = in.readLong();
+		admitted = in.readLong();
+		for (int i = 0; i < counters.length; i++)
+			counters[i] = in.readLong();
+		for (int i = 0; i < doorkeeper.length; i++)
+			doorkeeper[i] = in.readLong();
+	}
+}
@@ -0,0 +1,159 @@
+/* Read access to a snapshot written by BinarySnapshotWriter. The file is memory mapped and records are read in place,
+ * so a job can scan the edges or look up the i-th one without deserializing the snapshot. Names are only decoded
+ * when asked for. Snapshots up to 2GB are mapped in one piece.
+ * As a program it converts binary snapshots back to the SOURCE,TARGET,WEIGHT csv of the samplers.
+ * Usage: BinarySnapshot <snapshot> [<output csv>], without an output file the csv is printed.
+ */
+package dynamic.sampling;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+public class BinarySnapshot {
+	private final MappedByteBuffer buf;
+	private final int flags;
+	private final int reservoirSize;
+	private final double attFactor;
+	private final double threshold;
+	private final long timestep;
+	private final int edgeCount;
+	private final int nodeCount;
+	private final int nodesOffset;
+	private final int namesOffset;
+
+	private BinarySnapshot(MappedByteBuffer buf, File file) throws IOException {
+		this.buf = buf;
+		if (buf.limit() < BinarySnapshotWriter.HEADER_SIZE || buf.getInt(0) != BinarySnapshotWriter.MAGIC)
+			throw new IOException("Not a binary snapshot: " + file);
+		if (buf.getInt(4) != BinarySnapshotWriter.VERSION)
+			throw new IOException("Unsupported snapshot version " + buf.getInt(4) + ": " + file);
+		flags = buf.getInt(8);
+		reservoirSize = buf.getInt(12);
+		attFactor = buf.getDouble(16);
+		threshold = buf.getDouble(24);
+		timestep = buf.getLong(32);
+		edgeCount = (int) buf.getLong(40);
+		nodeCount = buf.getInt(48);
+		nodesOffset = (int) buf.getLong(56);
+		namesOffset = nodesOffset + (nodeCount + 1) * 4;
+	}
+
+	public static BinarySnapshot open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long length = raf.length();
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("Snapshot larger than 2GB: " + file);
+			MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			return new BinarySnapshot(buf, file);
+		} finally {
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: BinarySnapshot <snapshot> [<output csv>]");
+			return;
+		}
+		try {
+			BinarySnapshot snapshot = open(new File(args[0]));
+			PrintStream out = args.length > 1 ? new PrintStream(new File(args[1])) : System.out;
+			snapshot.writeCsv(out);
+			if (out != System.out)
+				out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public boolean isDirected() {
+		return (flags & BinarySnapshotWriter.FLAG_DIRECTED) != 0;
+	}
+
+	public int reservoirSize() {
+		return reservoirSize;
+	}
+
+	public double attFactor() {
+		return attFactor;
+	}
+
+	public double threshold() {
+		return threshold;
+	}
+
+	public long timestep() {
+		return timestep;
+	}
+
+	public int edgeCount() {
+		return edgeCount;
+	}
+
+	public int nodeCount() {
+		return nodeCount;
+	}
+
+	public int source(int edge) {
+		return buf.getInt(record(edge));
+	}
+
+	public int target(int edge) {
+		return buf.getInt(record(edge) + 4);
+	}
+
+	public int count(int edge) {
+		return buf.getInt(record(edge) + 8);
+	}
+
+	public double weight(int edge) {
+		return buf.getDouble(record(edge) + 16);
+	}
+
+	public String nodeName(int node) {
+		int start = nameStart(node);
+		byte[] b = new byte[nameStart(node + 1) - start];
+		ByteBuffer view = buf.duplicate();
+		view.position(namesOffset + start);
+		view.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/** Visits the edges in file order. */
+	public void forEachEdge(EdgeVisitor visitor) {
+		for (int i = 0; i < edgeCount; i++) {
+			int at = record(i);
+			visitor.edge(buf.getInt(at), buf.getInt(at + 4), buf.getDouble(at + 16), buf.getInt(at + 8));
+		}
+	}
+
+	public void writeCsv(PrintStream out) {
+		String[] names = new String[nodeCount];
+		for (int i = 0; i < nodeCount; i++)
+			names[i] = nodeName(i);
+		out.print("SOURCE,TARGET,WEIGHT");
+		for (int i = 0; i < edgeCount; i++)
+			out.print("\r\n" + names[source(i)] + "," + names[target(i)] + "," + weight(i));
+		out.flush();
+	}
+
+	private int record(int edge) {
+		if (edge < 0 || edge >= edgeCount)
+			throw new IndexOutOfBoundsException("Edge " + edge + " of " + edgeCount);
+		return BinarySnapshotWriter.HEADER_SIZE + edge * BinarySnapshotWriter.RECORD_SIZE;
+	}
+
+	private int nameStart(int node) {
+		return buf.getInt(nodesOffset + node * 4);
+	}
+}
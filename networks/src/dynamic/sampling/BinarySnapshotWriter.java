@@ -0,0 +1,130 @@
+/* Writes the current sample of a sampler in the binary snapshot format read by BinarySnapshot, for downstream jobs that
+ * would otherwise re-parse a csv snapshot for every timestep.
+ * Layout, little endian:
+ *   header   64 bytes: magic, version, flags (1 = directed), reservoir size, attenuation factor, threshold, timestep,
+ *            edge count, node count, offset of the node dictionary
+ *   edges    edge count records of 24 bytes: source id, target id, count, unused int, weight as a double
+ *   nodes    node count + 1 int offsets into the name bytes, then the UTF-8 names
+ * Node ids are renumbered 0 .. node count - 1 in order of first appearance in the records, so the dictionary only holds
+ * the nodes of the sample. Parameters a sampler does not have are written as 0 (threshold and factor of the reservoirs).
+ */
+package dynamic.sampling;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+public class BinarySnapshotWriter {
+	static final int MAGIC = 0x45534e50; // "ESNP"
+	static final int VERSION = 1;
+	static final int FLAG_DIRECTED = 1;
+	static final int HEADER_SIZE = 64;
+	static final int RECORD_SIZE = 24;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final double attFactor;
+	private final double threshold;
+	private final int reservoirSize;
+	private int[] renumbered = new int[0];
+
+	public BinarySnapshotWriter(double attFactor, double threshold, int reservoirSize) {
+		this.attFactor = attFactor;
+		this.threshold = threshold;
+		this.reservoirSize = reservoirSize;
+	}
+
+	/** Writes the whole sample as the snapshot of the given timestep. */
+	public void write(EdgeSampler sampler, long timestep, File file) throws IOException {
+		write(sampler, sampler.nodes().names(), timestep, file);
+	}
+
+	/** Same with the node names taken from a view made earlier, see SnapshotWriter. */
+	public void write(EdgeSampler sampler, NodeDictionary.Names names, long timestep, File file) throws IOException {
+		long start = System.nanoTime();
+		EdgeTable edges = sampler.edges();
+		if (renumbered.length < names.size())
+			renumbered = new int[Math.max(names.size(), renumbered.length * 2)];
+		Arrays.fill(renumbered, 0, names.size(), -1);
+		int[] order = new int[16];
+		int nodeCount = 0;
+
+		FileOutputStream out = new FileOutputStream(file);
+		FileChannel channel = out.getChannel();
+		try {
+			ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			// the header is written last, once the counts are known
+			channel.position(HEADER_SIZE);
+			long edgeCount = 0;
+			for (int id = 0; id < edges.limit(); id++) {
+				if (!edges.isLive(id))
+					continue;
+				long key = edges.getKey(id);
+				int source = EdgeTable.source(key);
+				int target = EdgeTable.target(key);
+				if (renumbered[source] < 0) {
+					if (nodeCount == order.length)
+						order = Arrays.copyOf(order, nodeCount * 2);
+					order[nodeCount] = source;
+					renumbered[source] = nodeCount++;
+				}
+				if (renumbered[target] < 0) {
+					if (nodeCount == order.length)
+						order = Arrays.copyOf(order, nodeCount * 2);
+					order[nodeCount] = target;
+					renumbered[target] = nodeCount++;
+				}
+				if (buf.remaining() < RECORD_SIZE)
+					flush(buf, channel);
+				buf.putInt(renumbered[source]).putInt(renumbered[target]).putInt(edges.getCount(id)).putInt(0)
+						.putDouble(sampler.weightOf(id));
+				edgeCount++;
+			}
+
+			long nodesOffset = HEADER_SIZE + edgeCount * RECORD_SIZE;
+			int offset = 0;
+			for (int i = 0; i <= nodeCount; i++) {
+				if (buf.remaining() < 4)
+					flush(buf, channel);
+				buf.putInt(offset);
+				if (i < nodeCount)
+					offset += names.length(order[i]);
+			}
+			for (int i = 0; i < nodeCount; i++) {
+				if (buf.remaining() < names.length(order[i]))
+					flush(buf, channel);
+				if (buf.remaining() < names.length(order[i])) {
+					// a name longer than the buffer
+					ByteBuffer name = names.wrap(order[i]);
+					while (name.hasRemaining())
+						channel.write(name);
+				} else {
+					names.put(order[i], buf);
+				}
+			}
+			flush(buf, channel);
+
+			buf.putInt(MAGIC).putInt(VERSION).putInt(edges.isDirected() ? FLAG_DIRECTED : 0).putInt(reservoirSize);
+			buf.putDouble(attFactor).putDouble(threshold).putLong(timestep);
+			buf.putLong(edgeCount).putInt(nodeCount).putInt(0).putLong(nodesOffset);
+			buf.flip();
+			channel.position(0);
+			while (buf.hasRemaining())
+				channel.write(buf);
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+		sampler.metrics().snapshotWritten(System.nanoTime() - start);
+	}
+
+	private static void flush(ByteBuffer buf, FileChannel channel) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining())
+			channel.write(buf);
+		buf.clear();
+	}
+}
@@ -0,0 +1,96 @@
+/* Checkpoints of a sampler for long runs: the node names and the whole sampler state (tables, heap, reservoir slots,
+ * decay epoch, random generator) in one binary file, so a run that dies at file 80 resumes at file 81 with the same
+ * results as if it had not stopped.
+ * write copies the state into memory on the calling thread, between two files, and hands the copy to the
+ * SnapshotWriter of the run, which writes it after the snapshots asked for before it. The file is written next to the
+ * checkpoint and moved over it once complete, so a crash while writing leaves the previous checkpoint in place, and a
+ * checkpoint on disk always comes after the snapshots of the timesteps it covers.
+ * Layout: magic, version, sampler class name, last completed timestep, node names, sampler state.
+ */
+package dynamic.sampling;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+
+public class CheckpointWriter {
+	private static final int MAGIC = 0x45434b50; // "ECKP"
+	private static final int VERSION = 1;
+
+	private final File file;
+	private final SnapshotWriter writer;
+
+	public CheckpointWriter(File file, SnapshotWriter writer) {
+		this.file = file;
+		this.writer = writer;
+	}
+
+	/** Saves the state of the sampler after the given timestep, written once the pending snapshots are. */
+	public void write(Checkpointable sampler, long timestep) throws IOException {
+		write(sampler, sampler.nodes().names(), timestep);
+	}
+
+	/**
+	 * Same with the node names taken from a view made earlier, for a sampler fed by another thread than the one
+	 * interning the names, see SnapshotWriter.
+	 */
+	public void write(Checkpointable sampler, NodeDictionary.Names names, long timestep) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(sampler.getClass().getName());
+		out.writeLong(timestep);
+		names.writeTo(out);
+		sampler.writeState(out);
+		out.flush();
+		final byte[] state = bytes.toByteArray();
+		writer.submit(new Callable<Void>() {
+			public Void call() throws IOException {
+				File tmp = new File(file.getPath() + ".tmp");
+				FileOutputStream fos = new FileOutputStream(tmp);
+				try {
+					fos.write(state);
+					fos.getFD().sync();
+				} finally {
+					fos.close();
+				}
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Restores a new sampler, with an empty NodeDictionary, from the checkpoint and returns the last timestep it
+	 * covers, or -1 when there is no checkpoint yet.
+	 */
+	public long resume(Checkpointable sampler) throws IOException {
+		if (!file.exists())
+			return -1;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a checkpoint: " + file);
+			String samplerClass = in.readUTF();
+			if (!samplerClass.equals(sampler.getClass().getName()))
+				throw new IOException("Checkpoint " + file + " holds a " + samplerClass + ", not a "
+						+ sampler.getClass().getName());
+			long timestep = in.readLong();
+			sampler.nodes().readFrom(in);
+			sampler.readState(in);
+			return timestep;
+		} finally {
+			in.close();
+		}
+	}
+}
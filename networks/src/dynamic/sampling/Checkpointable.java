@@ -0,0 +1,16 @@
+/* A sampler whose whole state can be saved by a CheckpointWriter and restored into a new instance with the same
+ * parameters, so a run resumed from a checkpoint goes on exactly as the run that wrote it.
+ * The node names are saved by the CheckpointWriter, a sampler only writes its own state. readState checks that the
+ * saved parameters are its own and throws an IOException when they are not.
+ */
+package dynamic.sampling;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public interface Checkpointable extends EdgeSampler {
+	void writeState(DataOutput out) throws IOException;
+
+	void readState(DataInput in) throws IOException;
+}
@@ -0,0 +1,107 @@
+/* Rebuilds the sample at snapshot t from the output of a DeltaSnapshotWriter: the last checkpoint t0 <= t is loaded
+ * and the deltas t0+1 .. t are applied to it.
+ * Usage: DeltaSnapshotReader <folder> <t> [<output csv>], without an output file the sample is printed.
+ */
+package dynamic.sampling;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+
+public class DeltaSnapshotReader {
+	private final NodeDictionary nodes = new NodeDictionary();
+	// edges keep the orientation they were written with
+	private final EdgeTable edges = new EdgeTable(1024, true);
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.out.println("Usage: DeltaSnapshotReader <folder> <t> [<output csv>]");
+			return;
+		}
+		try {
+			DeltaSnapshotReader reader = new DeltaSnapshotReader();
+			reader.rebuild(new File(args[0]), Long.parseLong(args[1]));
+			PrintStream out = args.length > 2 ? new PrintStream(new File(args[2])) : System.out;
+			reader.writeCsv(out);
+			if (out != System.out)
+				out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void rebuild(File folder, long t) throws IOException {
+		long checkpoint = t;
+		while (checkpoint > 0 && !new File(folder, checkpoint + ".full").exists())
+			checkpoint--;
+		if (checkpoint <= 0)
+			throw new IOException("No checkpoint at or before snapshot " + t + " in " + folder);
+		edges.clear();
+		readFile(new File(folder, checkpoint + ".full"), false);
+		for (long n = checkpoint + 1; n <= t; n++) {
+			File delta = new File(folder, n + ".delta");
+			if (!delta.exists())
+				throw new IOException("Missing delta " + delta);
+			readFile(delta, true);
+		}
+	}
+
+	public NodeDictionary nodes() {
+		return nodes;
+	}
+
+	public EdgeTable edges() {
+		return edges;
+	}
+
+	public void writeCsv(PrintStream out) {
+		out.print("SOURCE,TARGET,WEIGHT");
+		for (int id = 0; id < edges.limit(); id++) {
+			if (!edges.isLive(id))
+				continue;
+			long key = edges.getKey(id);
+			out.print("\r\n" + nodes.name(EdgeTable.source(key)) + "," + nodes.name(EdgeTable.target(key)) + ","
+					+ edges.getWeight(id));
+		}
+		out.flush();
+	}
+
+	// a checkpoint line is SOURCE,TARGET,WEIGHT, a delta line starts with its operation
+	private void readFile(File file, boolean delta) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.isEmpty() || (!delta && line.startsWith("SOURCE,TARGET")))
+					continue;
+				String[] split = line.split(",");
+				if (!delta) {
+					put(split[0], split[1], Double.parseDouble(split[2]));
+				} else if (split[0].equals("SCALE")) {
+					edges.scaleWeights(Double.parseDouble(split[1]));
+				} else if (split[0].equals("REMOVE")) {
+					int id = edges.find(key(split[1], split[2]));
+					if (id >= 0)
+						edges.remove(id);
+				} else if (split[0].equals("PUT")) {
+					put(split[1], split[2], Double.parseDouble(split[3]));
+				} else {
+					throw new IOException("Unknown delta operation in " + file + ": " + line);
+				}
+			}
+		} finally {
+			br.close();
+		}
+	}
+
+	private long key(String source, String target) {
+		return edges.keyOf(nodes.intern(source), nodes.intern(target));
+	}
+
+	private void put(String source, String target, double weight) {
+		int id = edges.upsert(key(source, target));
+		edges.setWeight(id, weight);
+	}
+}
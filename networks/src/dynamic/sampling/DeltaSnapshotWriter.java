@@ -0,0 +1,91 @@
+/* Delta output: instead of the whole sample after every timestep, only what changed is written, with a full
+ * checkpoint every checkpointEvery snapshots. Snapshot n is either n.full, a SOURCE,TARGET,WEIGHT csv of the whole
+ * sample, or n.delta holding the changes since snapshot n-1:
+ *   SCALE,<factor>               every weight of snapshot n-1 is multiplied by factor (the decay of the sampler)
+ *   REMOVE,<source>,<target>     the edge was evicted
+ *   PUT,<source>,<target>,<w>    the edge was inserted or updated and now weighs w
+ * applied in this order. DeltaSnapshotReader rebuilds snapshot t from the last checkpoint before it. Factors and
+ * weights print through SnapshotWriter.appendWeight like the weights of the .full files.
+ * Replayed weights equal the written ones up to floating point rounding of the SCALE products.
+ */
+package dynamic.sampling;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+public class DeltaSnapshotWriter {
+	private final EdgeSampler sampler;
+	private final File folder;
+	private final int checkpointEvery;
+	private int written = 0;
+
+	public DeltaSnapshotWriter(EdgeSampler sampler, File folder, int checkpointEvery) {
+		if (checkpointEvery <= 0)
+			throw new IllegalArgumentException("Checkpoint interval must be positive: " + checkpointEvery);
+		this.sampler = sampler;
+		this.folder = folder;
+		this.checkpointEvery = checkpointEvery;
+		sampler.edges().trackChanges();
+	}
+
+	/** Writes snapshot number as a checkpoint or as the delta to the previous one, and returns its file. */
+	public File write(long number) throws IOException {
+		return write(number, sampler.nodes().names());
+	}
+
+	/** Same with the node names taken from a view made earlier, see SnapshotWriter. */
+	public File write(long number, NodeDictionary.Names names) throws IOException {
+		long start = System.nanoTime();
+		double decay = sampler.takeDecay();
+		File file;
+		if (written % checkpointEvery == 0) {
+			file = new File(folder, number + ".full");
+			SnapshotWriter.writeCsv(sampler, names, file);
+		} else {
+			file = new File(folder, number + ".delta");
+			writeDelta(file, names, decay);
+		}
+		sampler.edges().clearChanges();
+		written++;
+		sampler.metrics().snapshotWritten(System.nanoTime() - start);
+		return file;
+	}
+
+	private void writeDelta(File file, NodeDictionary.Names nodes, double decay) throws IOException {
+		EdgeTable edges = sampler.edges();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		ByteBuffer weight = ByteBuffer.allocate(32);
+		try {
+			if (decay != 1.0) {
+				writer.append("SCALE,");
+				appendWeight(writer, weight, decay);
+				writer.append("\r\n");
+			}
+			for (int i = 0; i < edges.removedCount(); i++) {
+				long key = edges.getRemovedKey(i);
+				writer.append("REMOVE,").append(nodes.name(EdgeTable.source(key))).append(',')
+						.append(nodes.name(EdgeTable.target(key))).append("\r\n");
+			}
+			for (int id = edges.nextChanged(0); id >= 0; id = edges.nextChanged(id + 1)) {
+				long key = edges.getKey(id);
+				writer.append("PUT,").append(nodes.name(EdgeTable.source(key))).append(',')
+						.append(nodes.name(EdgeTable.target(key))).append(',');
+				appendWeight(writer, weight, sampler.weightOf(id));
+				writer.append("\r\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void appendWeight(Writer writer, ByteBuffer weight, double w) throws IOException {
+		weight.clear();
+		SnapshotWriter.appendWeight(weight, w);
+		for (int i = 0; i < weight.position(); i++)
+			writer.write(weight.get(i));
+	}
+}
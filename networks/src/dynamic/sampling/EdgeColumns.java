@@ -0,0 +1,53 @@
+/* Storage of an EdgeTable: the probe slots, holding entry ids or EMPTY, and the columns of the entries (key, weight,
+ * count, last seen). The table keeps the hashing, free ids and change tracking and reads and writes through here,
+ * so the same table runs on arrays of the Java heap (HeapEdgeColumns) or on memory-mapped files (MappedEdgeColumns).
+ * A run uses one or both, the calls are inlined either way.
+ */
+package dynamic.sampling;
+
+abstract class EdgeColumns {
+	static final int EMPTY = -1;
+
+	abstract int slotCount();
+
+	abstract int slot(int slot);
+
+	abstract void setSlot(int slot, int id);
+
+	/** Replaces the slots by slotCount empty ones, slotCount is a power of two. */
+	abstract void resetSlots(int slotCount);
+
+	/** Entries that fit without growing. */
+	abstract int capacity();
+
+	/** Makes room for at least capacity entries, keeping the ones stored. */
+	abstract void grow(int capacity);
+
+	abstract long key(int id);
+
+	abstract void setKey(int id, long key);
+
+	abstract double weight(int id);
+
+	abstract void setWeight(int id, double weight);
+
+	abstract int count(int id);
+
+	abstract void setCount(int id, int count);
+
+	abstract long lastSeen(int id);
+
+	abstract void setLastSeen(int id, long time);
+
+	/** Multiplies the weights of the ids in [from, to). */
+	abstract void scaleWeights(int from, int to, double factor);
+
+	/**
+	 * Appends to ids, from position n on, the ids in [from, to) weighing less than threshold, or at most threshold when
+	 * inclusive, and returns the new n. ids must have room for to - from more.
+	 */
+	abstract int below(int from, int to, double threshold, boolean inclusive, int[] ids, int n);
+
+	/** Copies the entry from one id to another. */
+	abstract void move(int from, int to);
+}
@@ -0,0 +1,9 @@
+/* Callback through which edge readers feed the samplers, one call per stream edge.
+ * Node ids come from the NodeDictionary of the reader. The time is the TIMESTAMP column read as its digits,
+ * so yyyy-MM-dd HH:mm:ss arrives as the number yyyyMMddHHmmss and a numeric timestamp as itself, 0 when absent.
+ */
+package dynamic.sampling;
+
+public interface EdgeHandler {
+	void edge(int source, int target, long time);
+}
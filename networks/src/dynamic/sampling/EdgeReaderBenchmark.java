@@ -0,0 +1,82 @@
+/* Compares the edges/sec of the MappedEdgeReader with the BufferedReader.readLine, split and trim loop the samplers used before.
+ * Both readers run over the same files several times and only parse, so the numbers do not include any sampling.
+ * Usage: EdgeReaderBenchmark <file>... [-rounds n]
+ */
+package dynamic.sampling;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class EdgeReaderBenchmark {
+	private static int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-rounds"))
+				ROUNDS = Integer.parseInt(args[++i]);
+			else
+				files.add(new File(args[i]));
+		}
+		if (files.isEmpty()) {
+			System.out.println("Usage: EdgeReaderBenchmark <file>... [-rounds n]");
+			return;
+		}
+		try {
+			for (int round = 1; round <= ROUNDS; round++) {
+				long start = System.nanoTime();
+				long edges = 0;
+				for (File file : files)
+					edges += readLines(file);
+				report("BufferedReader", round, edges, System.nanoTime() - start);
+
+				final long[] checksum = new long[1];
+				EdgeHandler handler = new EdgeHandler() {
+					public void edge(int source, int target, long time) {
+						checksum[0] += source + target + time;
+					}
+				};
+				MappedEdgeReader reader = new MappedEdgeReader(new NodeDictionary());
+				start = System.nanoTime();
+				edges = 0;
+				for (File file : files)
+					edges += reader.read(file, handler);
+				report("MappedEdgeReader", round, edges, System.nanoTime() - start);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// the per line work of the samplers' former readFolderForGivenFiles
+	private static long readLines(File file) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		long edges = 0;
+		long checksum = 0;
+		try {
+			String sCurrentLine;
+			while ((sCurrentLine = br.readLine()) != null) {
+				if (sCurrentLine.contains("SOURCE"))
+					continue;
+				String[] splitLine = sCurrentLine.split(",");
+				String source = splitLine[0].trim();
+				String target = splitLine[1].trim();
+				String time = splitLine.length > 2 ? splitLine[2].trim() : "";
+				checksum += source.length() + target.length() + time.length();
+				edges++;
+			}
+		} finally {
+			br.close();
+		}
+		return checksum >= 0 ? edges : -1;
+	}
+
+	private static void report(String name, int round, long edges, long nanos) {
+		System.out.println(name + " round " + round + ": " + edges + " edges in " + nanos / 1000000 + " ms, "
+				+ (long) (edges / (nanos / 1e9)) + " edges/sec");
+	}
+}
@@ -0,0 +1,31 @@
+/* Common surface of the four samplers, used by the engines that drive them from a stream instead of numbered files.
+ * Edges arrive through EdgeHandler.edge. endOfTimestep closes a timestep: ExponentialSmoothing folds the edges of the
+ * timestep into its sample there, SBias decays on the timestamps of its edges and the reservoirs have no timesteps.
+ */
+package dynamic.sampling;
+
+public interface EdgeSampler extends EdgeHandler {
+	void endOfTimestep(long timestep);
+
+	/** Visits every edge of the current sample with the weight a snapshot would write for it. */
+	void forEachEdge(EdgeVisitor visitor);
+
+	int size();
+
+	/** The edge store of the sample, read together with weightOf. */
+	EdgeTable edges();
+
+	/** The weight a snapshot writes for an entry of edges(). */
+	double weightOf(int id);
+
+	/**
+	 * Product of the decay factors applied to every edge of the sample since the last call, 1 when nothing decayed.
+	 * Delta snapshots record it once instead of every decayed weight.
+	 */
+	double takeDecay();
+
+	NodeDictionary nodes();
+
+	/** Counters of the sampler while it runs, see SamplerMetrics. */
+	SamplerMetrics metrics();
+}
@@ -0,0 +1,17 @@
+/* Where a StreamingEngine reads its edges from. A source hands out one channel after another (a socket source
+ * one per client connection), each read as a SOURCE,TARGET[,TIMESTAMP] csv stream with an optional header line.
+ */
+package dynamic.sampling;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+public interface EdgeSource {
+	/** The next channel to read, or null when the source has no more input. Blocks until one is available. */
+	ReadableByteChannel next() throws IOException;
+
+	/** Whether the end of a channel only means no data yet, as for a file that is still being written. */
+	boolean follow();
+
+	void close() throws IOException;
+}
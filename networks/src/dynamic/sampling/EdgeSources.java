@@ -0,0 +1,128 @@
+/* The EdgeSource implementations: a file that is tailed while it grows, a named pipe or stdin read to its end,
+ * and a local socket accepting one client at a time.
+ */
+package dynamic.sampling;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+
+public class EdgeSources {
+
+	/** Follows a file as it is appended to, waiting for it to appear first. */
+	public static EdgeSource tail(final File file) {
+		return new EdgeSource() {
+			private RandomAccessFile raf;
+
+			public ReadableByteChannel next() throws IOException {
+				if (raf != null)
+					return null;
+				while (!file.exists()) {
+					try {
+						Thread.sleep(StreamingEngine.POLL_MILLIS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return null;
+					}
+				}
+				raf = new RandomAccessFile(file, "r");
+				return raf.getChannel();
+			}
+
+			public boolean follow() {
+				return true;
+			}
+
+			public void close() throws IOException {
+				if (raf != null)
+					raf.close();
+			}
+		};
+	}
+
+	/** Reads a named pipe (or any file) once to its end. */
+	public static EdgeSource pipe(final File file) {
+		return new EdgeSource() {
+			private FileInputStream in;
+
+			public ReadableByteChannel next() throws IOException {
+				if (in != null)
+					return null;
+				in = new FileInputStream(file);
+				return in.getChannel();
+			}
+
+			public boolean follow() {
+				return false;
+			}
+
+			public void close() throws IOException {
+				if (in != null)
+					in.close();
+			}
+		};
+	}
+
+	public static EdgeSource stdin() {
+		return new EdgeSource() {
+			private boolean opened = false;
+
+			public ReadableByteChannel next() {
+				if (opened)
+					return null;
+				opened = true;
+				return Channels.newChannel(System.in);
+			}
+
+			public boolean follow() {
+				return false;
+			}
+
+			public void close() {
+			}
+		};
+	}
+
+	/** Listens on the loopback interface and reads the clients one after another until closed. */
+	public static EdgeSource socket(final int port) throws IOException {
+		final ServerSocketChannel server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		return new EdgeSource() {
+			public ReadableByteChannel next() throws IOException {
+				if (!server.isOpen())
+					return null;
+				return server.accept();
+			}
+
+			public boolean follow() {
+				return false;
+			}
+
+			public void close() throws IOException {
+				server.close();
+			}
+		};
+	}
+
+	/** Parses tail:<file>, pipe:<file>, socket:<port> or stdin. */
+	public static EdgeSource parse(String spec) throws IOException {
+		if (spec.equals("stdin") || spec.equals("-"))
+			return stdin();
+		int colon = spec.indexOf(':');
+		String kind = colon < 0 ? "" : spec.substring(0, colon);
+		String value = spec.substring(colon + 1);
+		if (kind.equals("tail"))
+			return tail(new File(value));
+		if (kind.equals("pipe"))
+			return pipe(new File(value));
+		if (kind.equals("socket"))
+			return socket(Integer.parseInt(value));
+		throw new IllegalArgumentException("Unknown edge source: " + spec);
+	}
+}
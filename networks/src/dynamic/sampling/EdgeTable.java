@@ -0,0 +1,480 @@
+/* Edge store shared by the samplers. An edge is keyed by the two interned node ids packed into a long and
+ * its state lives in primitive columns (weight, count, last seen) instead of a boxed value behind a String key.
+ * Keys are kept in an open-addressing table with linear probing that points at entry ids. Entry ids are stable
+ * until the edge is removed, removed ids are reused, so a sampler can keep an id (reservoir slot, heap position)
+ * without looking the edge up again.
+ * An undirected table orders the two ids of a key, so both directions of an edge share one entry and
+ * an update is a single probe through upsert.
+ * With trackChanges the table also records which entries were set and which keys were removed since the last
+ * clearChanges, for delta snapshots. Decay applied to a whole sample goes through rescale or scaleWeights, which
+ * are not recorded.
+ * writeTo and readFrom save and restore the entries with their ids and the order ids are reused in, for checkpoints.
+ * Decay of a whole sample runs as one sweep over the weight column with decay or prune: the weights are multiplied
+ * block by block and the ids left below the threshold are collected from the block while it is in cache, then
+ * removed in id order. A free entry weighs NaN, so the sweep passes over it without looking at the keys. compact moves
+ * the last edges into the free ids below them, for samplers that keep no ids, once pruning left the ids sparse.
+ * The slots and columns are EdgeColumns, arrays of the Java heap or, for a table made with a spill folder,
+ * memory-mapped files of that folder (see MappedEdgeColumns) for samples larger than the heap.
+ */
+package dynamic.sampling;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class EdgeTable {
+	private static final int EMPTY = EdgeColumns.EMPTY;
+	// packed key of an unused entry, node ids are never negative
+	private static final long FREE = -1L;
+	// weights multiplied and compared per block of a sweep, 32 KB of the weight column
+	static final int SWEEP_BLOCK = 4096;
+	// past one removal in REBUILD_SHARE edges a sweep rebuilds the probe slots instead of shifting them per removal
+	private static final int REBUILD_SHARE = 4;
+
+	private final boolean directed;
+	private final EdgeColumns columns;
+	private int mask;
+
+	// one bit per entry id set since the last clearChanges, null when changes are not tracked
+	private long[] changed;
+	private long[] removedKeys;
+	private int removedCount = 0;
+
+	private int[] freeIds;
+	private int freeCount = 0;
+	// ids found below the threshold by a sweep
+	private int[] pruned = new int[SWEEP_BLOCK];
+	private int limit = 0;
+	private int size = 0;
+
+	public EdgeTable() {
+		this(1024, false);
+	}
+
+	public EdgeTable(int expectedEdges, boolean directed) {
+		this(expectedEdges, directed, null);
+	}
+
+	/** A table keeping its edges in memory-mapped files of spillFolder, or on the heap when it is null. */
+	public EdgeTable(int expectedEdges, boolean directed, File spillFolder) {
+		this.directed = directed;
+		int capacity = Math.max(16, expectedEdges);
+		int slotCount = Integer.highestOneBit(capacity * 2 - 1) << 1;
+		columns = spillFolder == null ? new HeapEdgeColumns(slotCount, capacity)
+				: new MappedEdgeColumns(spillFolder, slotCount, capacity);
+		mask = slotCount - 1;
+		freeIds = new int[16];
+	}
+
+	public static long key(int source, int target) {
+		return ((long) source << 32) | (target & 0xffffffffL);
+	}
+
+	public static int source(long key) {
+		return (int) (key >>> 32);
+	}
+
+	public static int target(long key) {
+		return (int) key;
+	}
+
+	/** Key of the edge between two nodes, the same for both directions when the table is undirected. */
+	public long keyOf(int source, int target) {
+		if (directed || source <= target)
+			return key(source, target);
+		return key(target, source);
+	}
+
+	public boolean isDirected() {
+		return directed;
+	}
+
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	/** Returns the entry id of the edge or -1 when it is not in the table. */
+	public int find(long key) {
+		int slot = hash(key) & mask;
+		int id;
+		while ((id = columns.slot(slot)) != EMPTY) {
+			if (columns.key(id) == key)
+				return id;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/** Adds an edge that is not in the table yet, with weight 0 and count 0, and returns its entry id. */
+	public int insert(long key) {
+		if ((size + 1) * 2 > columns.slotCount())
+			resizeSlots(columns.slotCount() * 2);
+		int slot = hash(key) & mask;
+		while (columns.slot(slot) != EMPTY)
+			slot = (slot + 1) & mask;
+		return newEntry(key, slot);
+	}
+
+	/**
+	 * Returns the entry id of the edge, adding it with weight 0 and count 0 when it is not in the table,
+	 * in one probe sequence. Callers that always count an update can tell a new edge by its count of 0.
+	 */
+	public int upsert(long key) {
+		if ((size + 1) * 2 > columns.slotCount())
+			resizeSlots(columns.slotCount() * 2);
+		int slot = hash(key) & mask;
+		int id;
+		while ((id = columns.slot(slot)) != EMPTY) {
+			if (columns.key(id) == key)
+				return id;
+			slot = (slot + 1) & mask;
+		}
+		return newEntry(key, slot);
+	}
+
+	private int newEntry(long key, int slot) {
+		int id = freeCount > 0 ? freeIds[--freeCount] : limit++;
+		if (id == columns.capacity())
+			growColumns(id * 2);
+		columns.setKey(id, key);
+		columns.setWeight(id, 0.0);
+		columns.setCount(id, 0);
+		columns.setLastSeen(id, 0L);
+		columns.setSlot(slot, id);
+		size++;
+		markChanged(id);
+		return id;
+	}
+
+	public void remove(int id) {
+		long key = columns.key(id);
+		int slot = hash(key) & mask;
+		while (columns.slot(slot) != id)
+			slot = (slot + 1) & mask;
+		// backward shift deletion keeps every probe chain unbroken without tombstones
+		int next = (slot + 1) & mask;
+		int moved;
+		while ((moved = columns.slot(next)) != EMPTY) {
+			int home = hash(columns.key(moved)) & mask;
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				columns.setSlot(slot, moved);
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+		columns.setSlot(slot, EMPTY);
+		free(id, key);
+	}
+
+	// frees the entry once no slot points at it any more
+	private void free(int id, long key) {
+		if (changed != null) {
+			changed[id >>> 6] &= ~(1L << id);
+			if (removedCount == removedKeys.length)
+				removedKeys = Arrays.copyOf(removedKeys, removedCount * 2);
+			removedKeys[removedCount++] = key;
+		}
+		columns.setKey(id, FREE);
+		columns.setWeight(id, Double.NaN);
+		if (freeCount == freeIds.length)
+			freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+		freeIds[freeCount++] = id;
+		size--;
+	}
+
+	/** Multiplies every weight by factor without recording a change, in one sweep over the weight column. */
+	public void scaleWeights(double factor) {
+		columns.scaleWeights(0, limit, factor);
+	}
+
+	/** Multiplies the weights of the ids in [from, to) by factor without recording a change. */
+	public void scaleWeights(int from, int to, double factor) {
+		columns.scaleWeights(from, to, factor);
+	}
+
+	/**
+	 * Appends to ids, from position n on, the ids in [from, to) weighing less than threshold, or at most threshold when
+	 * inclusive, and returns the new n. Free entries weigh NaN and are never appended. ids must have room for to - from
+	 * more.
+	 */
+	public int below(int from, int to, double threshold, boolean inclusive, int[] ids, int n) {
+		return columns.below(from, to, threshold, inclusive, ids, n);
+	}
+
+	/**
+	 * Multiplies every weight by factor, without recording it, and removes the edges then weighing less than threshold,
+	 * or at most threshold when inclusive, as a loop of rescale and remove over the ids would. Returns how many.
+	 */
+	public int decay(double factor, double threshold, boolean inclusive) {
+		return decay(factor, threshold, inclusive, null, null, 0);
+	}
+
+	/**
+	 * The same, with the weight of ids[i] grown by adds[i] for i below count after it was multiplied and before it is
+	 * compared, recorded as a change: one sweep for a sampler that decays its sample and then adds a timestep to it.
+	 * The adds are bucketed by sweep block, so each lands while its block is in cache. Ids may not repeat.
+	 */
+	public int decay(double factor, double threshold, boolean inclusive, int[] ids, double[] adds, int count) {
+		// counting sort of the adds by block: those of block b are at first[b] .. first[b + 1] - 1
+		int[] first = new int[(limit + SWEEP_BLOCK - 1) / SWEEP_BLOCK + 1];
+		for (int i = 0; i < count; i++)
+			first[ids[i] / SWEEP_BLOCK + 1]++;
+		for (int b = 1; b < first.length; b++)
+			first[b] += first[b - 1];
+		int[] blockIds = new int[count];
+		double[] blockAdds = new double[count];
+		int[] next = Arrays.copyOf(first, first.length);
+		for (int i = 0; i < count; i++) {
+			int j = next[ids[i] / SWEEP_BLOCK]++;
+			blockIds[j] = ids[i];
+			blockAdds[j] = adds[i];
+		}
+		int n = 0;
+		for (int from = 0, b = 0; from < limit; from += SWEEP_BLOCK, b++) {
+			int to = Math.min(limit, from + SWEEP_BLOCK);
+			if (factor != 1.0)
+				columns.scaleWeights(from, to, factor);
+			for (int i = first[b]; i < first[b + 1]; i++) {
+				int id = blockIds[i];
+				columns.setWeight(id, columns.weight(id) + blockAdds[i]);
+				markChanged(id);
+			}
+			if (n + (to - from) > pruned.length)
+				pruned = Arrays.copyOf(pruned, Math.max(pruned.length * 2, n + (to - from)));
+			n = columns.below(from, to, threshold, inclusive, pruned, n);
+		}
+		if (n * REBUILD_SHARE < size) {
+			for (int i = 0; i < n; i++)
+				remove(pruned[i]);
+		} else {
+			for (int i = 0; i < n; i++)
+				free(pruned[i], columns.key(pruned[i]));
+			resizeSlots(columns.slotCount());
+		}
+		return n;
+	}
+
+	/** Removes the edges weighing less than threshold, or at most threshold when inclusive, and returns how many. */
+	public int prune(double threshold, boolean inclusive) {
+		return decay(1.0, threshold, inclusive);
+	}
+
+	/**
+	 * Moves the edges of the highest ids into the free ids below them, so the ids in use are 0 .. size - 1.
+	 * Ids kept by the caller are invalid afterwards, only for samplers that keep none (no heap, no reservoir slots).
+	 * A moved edge is recorded as set under its new id when changes are tracked.
+	 */
+	public void compact() {
+		int hole = 0;
+		int last = limit - 1;
+		while (true) {
+			while (hole < last && columns.key(hole) != FREE)
+				hole++;
+			while (last > hole && columns.key(last) == FREE)
+				last--;
+			if (hole >= last)
+				break;
+			int slot = hash(columns.key(last)) & mask;
+			while (columns.slot(slot) != last)
+				slot = (slot + 1) & mask;
+			columns.setSlot(slot, hole);
+			columns.move(last, hole);
+			columns.setKey(last, FREE);
+			columns.setWeight(last, Double.NaN);
+			if (changed != null)
+				changed[last >>> 6] &= ~(1L << last);
+			markChanged(hole);
+			hole++;
+			last--;
+		}
+		limit = size;
+		freeCount = 0;
+	}
+
+	public void clear() {
+		if (changed != null) {
+			for (int id = 0; id < limit; id++)
+				if (columns.key(id) != FREE)
+					remove(id);
+		}
+		columns.resetSlots(columns.slotCount());
+		for (int id = 0; id < limit; id++)
+			columns.setKey(id, FREE);
+		freeCount = 0;
+		limit = 0;
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** Upper bound (exclusive) of the entry ids in use, iterate with isLive. */
+	public int limit() {
+		return limit;
+	}
+
+	public boolean isLive(int id) {
+		return columns.key(id) != FREE;
+	}
+
+	public long getKey(int id) {
+		return columns.key(id);
+	}
+
+	public double getWeight(int id) {
+		return columns.weight(id);
+	}
+
+	public void setWeight(int id, double weight) {
+		columns.setWeight(id, weight);
+		markChanged(id);
+	}
+
+	/** Multiplies the weight without recording a change, for decay that the sampler reports for the whole sample. */
+	public void rescale(int id, double factor) {
+		columns.setWeight(id, columns.weight(id) * factor);
+	}
+
+	public int getCount(int id) {
+		return columns.count(id);
+	}
+
+	public void setCount(int id, int count) {
+		columns.setCount(id, count);
+		markChanged(id);
+	}
+
+	public long getLastSeen(int id) {
+		return columns.lastSeen(id);
+	}
+
+	public void setLastSeen(int id, long time) {
+		columns.setLastSeen(id, time);
+	}
+
+	/** Entry capacity, entry ids stay below it until the next insert. */
+	public int capacity() {
+		return columns.capacity();
+	}
+
+	/** Starts recording set entries and removed keys. */
+	public void trackChanges() {
+		if (changed == null) {
+			changed = new long[(columns.capacity() + 63) >>> 6];
+			removedKeys = new long[16];
+		}
+	}
+
+	public boolean isTrackingChanges() {
+		return changed != null;
+	}
+
+	private void markChanged(int id) {
+		if (changed != null)
+			changed[id >>> 6] |= 1L << id;
+	}
+
+	/** The first entry id at or after from that was set since the last clearChanges, -1 when there is none. */
+	public int nextChanged(int from) {
+		int word = from >>> 6;
+		if (word >= changed.length)
+			return -1;
+		long bits = changed[word] & (-1L << from);
+		while (bits == 0) {
+			if (++word == changed.length)
+				return -1;
+			bits = changed[word];
+		}
+		return (word << 6) + Long.numberOfTrailingZeros(bits);
+	}
+
+	public int removedCount() {
+		return removedCount;
+	}
+
+	public long getRemovedKey(int i) {
+		return removedKeys[i];
+	}
+
+	public void clearChanges() {
+		Arrays.fill(changed, 0L);
+		removedCount = 0;
+	}
+
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeBoolean(directed);
+		out.writeInt(columns.slotCount());
+		out.writeInt(limit);
+		for (int id = 0; id < limit; id++) {
+			long key = columns.key(id);
+			out.writeLong(key);
+			if (key == FREE)
+				continue;
+			out.writeDouble(columns.weight(id));
+			out.writeInt(columns.count(id));
+			out.writeLong(columns.lastSeen(id));
+		}
+		out.writeInt(freeCount);
+		for (int i = 0; i < freeCount; i++)
+			out.writeInt(freeIds[i]);
+	}
+
+	/** Replaces the entries by the ones written by writeTo. Changes are not recorded, tracking starts over empty. */
+	public void readFrom(DataInput in) throws IOException {
+		if (in.readBoolean() != directed)
+			throw new IOException("Saved edges are " + (directed ? "undirected" : "directed") + ", this table is not");
+		int slotCount = in.readInt();
+		limit = in.readInt();
+		if (limit > columns.capacity())
+			growColumns(limit);
+		size = 0;
+		for (int id = 0; id < limit; id++) {
+			long key = in.readLong();
+			columns.setKey(id, key);
+			if (key == FREE) {
+				columns.setWeight(id, Double.NaN);
+				continue;
+			}
+			columns.setWeight(id, in.readDouble());
+			columns.setCount(id, in.readInt());
+			columns.setLastSeen(id, in.readLong());
+			size++;
+		}
+		freeCount = in.readInt();
+		if (freeCount > freeIds.length)
+			freeIds = new int[freeCount];
+		for (int i = 0; i < freeCount; i++)
+			freeIds[i] = in.readInt();
+		resizeSlots(slotCount);
+		if (changed != null)
+			clearChanges();
+	}
+
+	private void growColumns(int capacity) {
+		columns.grow(capacity);
+		if (changed != null)
+			changed = Arrays.copyOf(changed, (columns.capacity() + 63) >>> 6);
+	}
+
+	private void resizeSlots(int slotCount) {
+		columns.resetSlots(slotCount);
+		mask = slotCount - 1;
+		for (int id = 0; id < limit; id++) {
+			long key = columns.key(id);
+			if (key == FREE)
+				continue;
+			int slot = hash(key) & mask;
+			while (columns.slot(slot) != EMPTY)
+				slot = (slot + 1) & mask;
+			columns.setSlot(slot, id);
+		}
+	}
+}
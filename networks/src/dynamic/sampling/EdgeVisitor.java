@@ -0,0 +1,7 @@
+/* Receives the edges of a sample, one call per edge, with its current weight and the number of stream edges it absorbed.
+ */
+package dynamic.sampling;
+
+public interface EdgeVisitor {
+	void edge(int source, int target, double weight, int count);
+}
@@ -0,0 +1,150 @@
+/* Indexed min-heap of EdgeTable entry ids ordered by their weight column. The position of every id
+ * is kept so a weight change can be sifted in place and an edge can be taken out of the heap directly.
+ */
+package dynamic.sampling;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class EdgeWeightHeap {
+	private final EdgeTable table;
+	private int[] heap = new int[16];
+	private int[] position = new int[16];
+	private int size = 0;
+
+	public EdgeWeightHeap(EdgeTable table) {
+		this.table = table;
+		Arrays.fill(position, -1);
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int peek() {
+		return heap[0];
+	}
+
+	/** The id at position i of the heap, 0 <= i < size(), in heap order and not sorted. */
+	public int get(int i) {
+		return heap[i];
+	}
+
+	public boolean contains(int id) {
+		return id < position.length && position[id] >= 0;
+	}
+
+	public void add(int id) {
+		if (size == heap.length)
+			heap = Arrays.copyOf(heap, size * 2);
+		if (id >= position.length) {
+			int old = position.length;
+			position = Arrays.copyOf(position, Math.max(id + 1, table.capacity()));
+			Arrays.fill(position, old, position.length, -1);
+		}
+		heap[size] = id;
+		position[id] = size;
+		siftUp(size++);
+	}
+
+	public int poll() {
+		int min = heap[0];
+		removeAt(0);
+		return min;
+	}
+
+	public void remove(int id) {
+		removeAt(position[id]);
+	}
+
+	// weights only grow between two decays, so the edge can only move down
+	public void increased(int id) {
+		siftDown(position[id]);
+	}
+
+	public void decreased(int id) {
+		siftUp(position[id]);
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++)
+			position[heap[i]] = -1;
+		size = 0;
+	}
+
+	/** Writes the ids in heap order, so a restored heap breaks ties between equal weights the same way. */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(size);
+		for (int i = 0; i < size; i++)
+			out.writeInt(heap[i]);
+	}
+
+	/** Replaces the heap by the one written by writeTo, over a table restored from the same checkpoint. */
+	public void readFrom(DataInput in) throws IOException {
+		clear();
+		int n = in.readInt();
+		if (n > heap.length)
+			heap = new int[n];
+		for (int i = 0; i < n; i++) {
+			int id = in.readInt();
+			if (id >= position.length) {
+				int old = position.length;
+				position = Arrays.copyOf(position, Math.max(id + 1, table.capacity()));
+				Arrays.fill(position, old, position.length, -1);
+			}
+			place(id, i);
+		}
+		size = n;
+	}
+
+	private void removeAt(int i) {
+		int id = heap[i];
+		int last = heap[--size];
+		position[id] = -1;
+		if (i < size) {
+			place(last, i);
+			siftDown(i);
+			siftUp(position[last]);
+		}
+	}
+
+	private void siftUp(int i) {
+		int id = heap[i];
+		double weight = table.getWeight(id);
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (table.getWeight(heap[parent]) <= weight)
+				break;
+			place(heap[parent], i);
+			i = parent;
+		}
+		place(id, i);
+	}
+
+	private void siftDown(int i) {
+		int id = heap[i];
+		double weight = table.getWeight(id);
+		int half = size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && table.getWeight(heap[child + 1]) < table.getWeight(heap[child]))
+				child++;
+			if (weight <= table.getWeight(heap[child]))
+				break;
+			place(heap[child], i);
+			i = child;
+		}
+		place(id, i);
+	}
+
+	private void place(int id, int i) {
+		heap[i] = id;
+		position[id] = i;
+	}
+}
@@ -14,63 +14,119 @@
 */
 package dynamic.sampling;
 
-import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-
-public class ExponentialSmoothing {
-	private static Map<String, Double> edgeDetailsMap = new HashMap<String, Double>();
-	private static Map<String, Double> currentEdgeDetailsMap;
+
+public class ExponentialSmoothing implements Checkpointable {
+	// set to true to keep both directions of an edge apart
+	private static boolean DIRECTED = false;
 	private static double ATT_FACTOR = 0.2;
-	private static double ATT_FACTOR_FOR_CURRENTDAY = 1-ATT_FACTOR;
 	private static double THRESHOLD = 12.0;
+	// 0 writes the whole sample after every file, n writes deltas with a full checkpoint every n files
+	private static int DELTA_CHECKPOINT_EVERY = 0;
+	// gzip the snapshot files
+	private static boolean GZIP_OUTPUT = false;
+	// write binary .snap snapshots, read with BinarySnapshot, instead of csv
+	private static boolean BINARY_OUTPUT = false;
+	// save the sampler state every n files, 0 for never, RESUME continues after the last saved file
+	private static int CHECKPOINT_EVERY = 0;
+	private static boolean RESUME = false;
+	// seconds between metric lines on the console, 0 for none, the metrics are in JMX either way
+	private static int METRICS_EVERY = 0;
+	// parse the next file on a thread of its own while this one is sampled, see FilePipeline
+	private static boolean PIPELINED = false;
+	// keep the sample in memory-mapped files of this folder instead of the heap, null for the heap, see MappedEdgeColumns
+	private static String SPILL_FOLDER = null;
 	private static int fileName=1;
 	private static int lastfileName=5; 
 	public static final String INPUT_FOLDER_NAME = "/home/path/";
 	public static final String OUTPUT_FOLDER_NAME = "/home/path/";
+
+	private final NodeDictionary nodes;
+	private final MappedEdgeReader reader;
+	private final EdgeTable edgeDetailsMap;
+	// reused for every file, cleared instead of reallocated
+	private final EdgeTable currentEdgeDetailsMap;
+	private final double attFactor;
+	private final double attFactorForCurrentDay;
+	private final double threshold;
+	private double decay = 1.0;
+	// the sample ids the timestep touched and what it adds to their weights, reused for every timestep
+	private int[] mergedIds = new int[1024];
+	private double[] mergedAdds = new double[1024];
+	private final SamplerMetrics metrics = new SamplerMetrics();
+
+	public ExponentialSmoothing(NodeDictionary nodes, double attFactor, double threshold, boolean directed) {
+		this(nodes, attFactor, threshold, directed, null);
+	}
+
+	/**
+	 * Same with the sample kept in memory-mapped files of spillFolder instead of the heap, unless it is null.
+	 * The edges of the current timestep stay on the heap.
+	 */
+	public ExponentialSmoothing(NodeDictionary nodes, double attFactor, double threshold, boolean directed,
+			File spillFolder) {
+		this.nodes = nodes;
+		this.reader = new MappedEdgeReader(nodes);
+		this.edgeDetailsMap = new EdgeTable(1024, directed, spillFolder);
+		this.currentEdgeDetailsMap = new EdgeTable(1024, directed);
+		this.attFactor = attFactor;
+		this.attFactorForCurrentDay = 1 - attFactor;
+		this.threshold = threshold;
+	}
 	
 	public static void main(String[] args) {
 		try {
 			long startTimeinMilliSeconds = new Date().getTime();
+			final ExponentialSmoothing sampler = new ExponentialSmoothing(new NodeDictionary(), ATT_FACTOR, THRESHOLD,
+					DIRECTED, SPILL_FOLDER == null ? null : new File(SPILL_FOLDER));
+			final DeltaSnapshotWriter deltaWriter = DELTA_CHECKPOINT_EVERY > 0
+					? new DeltaSnapshotWriter(sampler, new File(OUTPUT_FOLDER_NAME), DELTA_CHECKPOINT_EVERY) : null;
+			// snapshots are written in the background while the next file is read
+			final SnapshotWriter snapshots = new SnapshotWriter(GZIP_OUTPUT, true);
+			final BinarySnapshotWriter binaryWriter = BINARY_OUTPUT
+					? new BinarySnapshotWriter(ATT_FACTOR, THRESHOLD, 0) : null;
+			final CheckpointWriter checkpoints = new CheckpointWriter(new File(OUTPUT_FOLDER_NAME + "checkpoint"),
+					snapshots);
+			sampler.metrics().register("ExponentialSmoothing");
+			MetricsReporter reporter = METRICS_EVERY > 0 ? new MetricsReporter(METRICS_EVERY) : null;
+			if (reporter != null)
+				reporter.add("ExponentialSmoothing", sampler.metrics());
+			if (RESUME) {
+				long done = checkpoints.resume(sampler);
+				if (done >= 0)
+					fileName = (int) done + 1;
+			}
+			// the outputs of a file, written through the names as of its end
+			FilePipeline.FileHandler outputs = new FilePipeline.FileHandler() {
+				public void endOfFile(int fileName, NodeDictionary.Names names) throws IOException {
+					if (deltaWriter != null) {
+						deltaWriter.write(fileName, names);
+					} else if (binaryWriter != null) {
+						binaryWriter.write(sampler, names, fileName, new File(OUTPUT_FOLDER_NAME + fileName + ".snap"));
+					} else {
+						snapshots.write(sampler, names, new File(OUTPUT_FOLDER_NAME+fileName));
+					}
+					if (CHECKPOINT_EVERY > 0 && fileName % CHECKPOINT_EVERY == 0)
+						checkpoints.write(sampler, names, fileName);
+				}
+			};
 			
+			if (PIPELINED) {
+				new FilePipeline(sampler).run(INPUT_FOLDER_NAME, fileName, lastfileName, outputs);
+			} else {
 				for(; fileName<=lastfileName; fileName++){ //#of files in the folder
-
-				
-				/*NumberFormat nf = NumberFormat.getNumberInstance(Locale.UK);
-				nf.setMaximumFractionDigits(2);*/
-				
-				currentEdgeDetailsMap = new HashMap<String, Double>();
-				readFolderForGivenFiles(INPUT_FOLDER_NAME,fileName);
-				
-				File file = new File(OUTPUT_FOLDER_NAME+fileName);
-				
-				
-				// if file doesnt exists, then creates it
-				if (!file.exists()) {
-					file.createNewFile();
-				}
-
-				FileWriter writer = new FileWriter(file, true);
-
-				writer.append("SOURCE,TARGET,WEIGHT");
-				for(Entry<String, Double> og : edgeDetailsMap.entrySet()){
-					writer.append("\r\n"+og.getKey()+","+og.getValue());
+					sampler.readFolderForGivenFiles(INPUT_FOLDER_NAME,fileName);
+					outputs.endOfFile(fileName, sampler.nodes().names());
 				}
-
-				writer.flush();
-				writer.close();
-				
-							
 			}
 				
+				snapshots.close();
+				if (reporter != null)
+					reporter.close();
 				long endTimeinMilliSeconds = new Date().getTime();
 
 				System.out.println("Time to compute in MilliSeconds: "
@@ -81,110 +137,118 @@ public class ExponentialSmoothing {
 		}
 	}
 
-	public static void readFolderForGivenFiles(String folderName,
+	public void readFolderForGivenFiles(String folderName,
 			int fileName) {
 		
 		// multiplies weights with att_factor after adding new day (i.e current day)
 		File file = new File(folderName + "//" + fileName);
-		BufferedReader br = null;
 		try {
+			System.out.println("Reading File : " + fileName	+ "    ..............");
+			reader.read(file, this);
+			endOfTimestep(fileName);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 
-			String sCurrentLine;
-			String DELIMETER = ",";
+	public void edge(int source, int target, long time) {
+		int id = currentEdgeDetailsMap.upsert(currentEdgeDetailsMap.keyOf(source, target));
+		currentEdgeDetailsMap.setWeight(id, currentEdgeDetailsMap.getWeight(id) + 1);
+		currentEdgeDetailsMap.setCount(id, currentEdgeDetailsMap.getCount(id) + 1);
+		metrics.edges.increment();
+	}
 
-			System.out.println("Reading File : " + fileName	+ "    ..............");
-			br = new BufferedReader(new FileReader(file));
-			while ((sCurrentLine = br.readLine()) != null) {
-				// Ignores the First Line ,as it contains the column name
-				if (sCurrentLine.contains("SOURCE")) {
-					continue;
-				}
-				String[] splitLine = sCurrentLine.split(DELIMETER);
+	/**
+	 * Folds the edges of the timestep just read into the sample in one sweep of the weight column: each edge of the
+	 * timestep finds or adds its edge of the sample, then EdgeTable.decay multiplies the column by ATT_FACTOR block by
+	 * block, adds current weight * (1 - ATT_FACTOR) to the edges of the timestep in the block and prunes it against
+	 * THRESHOLD. The timestep is kept as the last seen time of the edges it touched.
+	 * The ids are compacted once pruning has left more free than used, nothing holds them between timesteps.
+	 */
+	public void endOfTimestep(long timestep) {
+		long start = System.nanoTime();
+		int before = edgeDetailsMap.size();
+		if (mergedIds.length < currentEdgeDetailsMap.size()) {
+			mergedIds = new int[currentEdgeDetailsMap.size()];
+			mergedAdds = new double[currentEdgeDetailsMap.size()];
+		}
+		int n = 0;
+		for (int cid = 0; cid < currentEdgeDetailsMap.limit(); cid++) {
+			if (!currentEdgeDetailsMap.isLive(cid))
+				continue;
+			// both tables use the same key order, so the key carries over as is
+			int id = edgeDetailsMap.upsert(currentEdgeDetailsMap.getKey(cid));
+			mergedIds[n] = id;
+			mergedAdds[n++] = currentEdgeDetailsMap.getWeight(cid) * attFactorForCurrentDay;
+			edgeDetailsMap.setCount(id, edgeDetailsMap.getCount(id) + currentEdgeDetailsMap.getCount(cid));
+			edgeDetailsMap.setLastSeen(id, timestep);
+		}
+		decay *= attFactor;
+
+		int merged = edgeDetailsMap.size();
+		edgeDetailsMap.decay(attFactor, threshold, true, mergedIds, mergedAdds, n);
+		if (edgeDetailsMap.limit() > 2 * edgeDetailsMap.size())
+			edgeDetailsMap.compact();
+		currentEdgeDetailsMap.clear();
+
+		metrics.timesteps.increment();
+		metrics.evictions.add(merged - edgeDetailsMap.size());
+		metrics.sampleSize.add(edgeDetailsMap.size() - before);
+		metrics.decay.record(System.nanoTime() - start);
+	}
 
-//				String date = getDate(splitLine[5].trim());
-				String source = splitLine[0].trim();
-				String target = splitLine[1].trim();
+	public void forEachEdge(EdgeVisitor visitor) {
+		for (int id = 0; id < edgeDetailsMap.limit(); id++) {
+			if (!edgeDetailsMap.isLive(id))
+				continue;
+			long key = edgeDetailsMap.getKey(id);
+			visitor.edge(EdgeTable.source(key), EdgeTable.target(key), edgeDetailsMap.getWeight(id), edgeDetailsMap.getCount(id));
+		}
+	}
 
-				String key = source + "," + target;
-				String keyflip = target + "," + source;
-				
-				
-			
-				if (currentEdgeDetailsMap.containsKey(key)||currentEdgeDetailsMap.containsKey(keyflip)) 
-				{
-					if (currentEdgeDetailsMap.containsKey(key)){
-						currentEdgeDetailsMap.put(key, currentEdgeDetailsMap.get(key) + 1);
-					}
-					else
-						currentEdgeDetailsMap.put(keyflip, currentEdgeDetailsMap.get(keyflip) + 1);
-					
-				} else {
-					currentEdgeDetailsMap.put(key, 1.0);
-				}
+	public int size() {
+		return edgeDetailsMap.size();
+	}
 
-			}
-			
-			for (Entry<String, Double> og : currentEdgeDetailsMap.entrySet()) 
-				{
-				currentEdgeDetailsMap.put(og.getKey(), og.getValue() * (ATT_FACTOR_FOR_CURRENTDAY));
-				}
-			
-			for (Entry<String, Double> og : edgeDetailsMap.entrySet())
-				{
-					edgeDetailsMap.put(og.getKey(), og.getValue() * ATT_FACTOR);
-				}
-				
-			
-			for(String edge : currentEdgeDetailsMap.keySet())
-			{
-				String[] splitLine = edge.split(DELIMETER);
-
-				String fromNum = splitLine[0].trim();
-				String toNum = splitLine[1].trim();
-
-				String key = fromNum + "," + toNum;
-				String keyflip = toNum + "," + fromNum;	
-			if (edgeDetailsMap.containsKey(key)||edgeDetailsMap.containsKey(keyflip)) 
-			{
-				if (edgeDetailsMap.containsKey(key)){
-					edgeDetailsMap.put(key, (edgeDetailsMap.get(key) + currentEdgeDetailsMap.get(key)));
-				}
-				else
-					edgeDetailsMap.put(keyflip, (edgeDetailsMap.get(keyflip) + currentEdgeDetailsMap.get(key)));
-				
-			} else {
-				edgeDetailsMap.put(key, currentEdgeDetailsMap.get(key));
-			}
-			}
+	public double weightOf(int id) {
+		return edgeDetailsMap.getWeight(id);
+	}
 
-			Set<String>  toRmoveSet =  new HashSet<String>();
-			for (Entry<String, Double> og : edgeDetailsMap.entrySet()) 
-			{
-					
-				if(edgeDetailsMap.get(og.getKey()) <= THRESHOLD)
-				{
-							toRmoveSet.add(og.getKey());
-			}
-		}
-			// removes the edges before the new weights are added
-			for(String key : toRmoveSet)
-			    edgeDetailsMap.remove(key);
-	  
-				
-				
+	public double takeDecay() {
+		double d = decay;
+		decay = 1.0;
+		return d;
+	}
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			try {
-				if (br != null)
-					br.close();
-			} catch (IOException ex) {
-				ex.printStackTrace();
-			}
-		}
+	public NodeDictionary nodes() {
+		return nodes;
+	}
+
+	public EdgeTable edges() {
+		return edgeDetailsMap;
+	}
+
+	public SamplerMetrics metrics() {
+		return metrics;
+	}
+
+	public void writeState(DataOutput out) throws IOException {
+		out.writeDouble(attFactor);
+		out.writeDouble(threshold);
+		out.writeDouble(decay);
+		edgeDetailsMap.writeTo(out);
+		currentEdgeDetailsMap.writeTo(out);
+	}
+
+	public void readState(DataInput in) throws IOException {
+		if (in.readDouble() != attFactor || in.readDouble() != threshold)
+			throw new IOException("Checkpoint was written by an ExponentialSmoothing with other parameters");
+		decay = in.readDouble();
+		int before = edgeDetailsMap.size();
+		edgeDetailsMap.readFrom(in);
+		currentEdgeDetailsMap.readFrom(in);
+		metrics.sampleSize.add(edgeDetailsMap.size() - before);
 	}
 	
 
 }
-
@@ -0,0 +1,173 @@
+/* Runs the file loop of the batch programs as stages on their own threads instead of one after the other.
+ * A reading thread parses the input files with a MappedEdgeReader and hands the edges in batches to the thread calling
+ * run, which samples them. After the last edges of a file the sampler's timestep is closed, as readFolderForGivenFiles
+ * does, and the FileHandler writes the outputs of the file, in the background when it writes through a SnapshotWriter
+ * made so, which is the third stage. The next file is parsed meanwhile, so reading overlaps with sampling and writing.
+ * Nodes are only interned by the reading thread, the handler gets a view of the names as of the end of its file and
+ * must write through it, never through the sampler's NodeDictionary. The sampler sees the same edges in the same order
+ * with the same node ids as in the sequential loop, so the outputs are the same.
+ * Backpressure: at most QUEUED_BATCHES batches wait for the sampler and the SnapshotWriter queue holds two snapshots,
+ * so a slow stage holds the ones before it back and memory stays bounded. Batches are recycled once sampled.
+ */
+package dynamic.sampling;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+
+public class FilePipeline {
+	private static final int BATCH_SIZE = 8192;
+	private static final int QUEUED_BATCHES = 16;
+
+	/** Writes the outputs of a file once the sampler has seen all of it, called by the sampling thread. */
+	public interface FileHandler {
+		void endOfFile(int fileName, NodeDictionary.Names names) throws IOException;
+	}
+
+	private final EdgeSampler sampler;
+	private final BlockingQueue<Batch> full = new ArrayBlockingQueue<Batch>(QUEUED_BATCHES);
+	// one batch more than can wait, the reading thread fills one while the sampler empties another
+	private final BlockingQueue<Batch> free = new ArrayBlockingQueue<Batch>(QUEUED_BATCHES + 2);
+
+	public FilePipeline(EdgeSampler sampler) {
+		this.sampler = sampler;
+	}
+
+	/**
+	 * Reads the files first .. last of the folder into the sampler, calling the handler after every file, and returns
+	 * once the handler has been called for the last one. A file that cannot be read is reported and ends empty, like
+	 * in the sequential loop.
+	 */
+	public void run(String folder, int first, int last, FileHandler handler) throws IOException {
+		Reader reader = new Reader(folder, first, last);
+		reader.start();
+		try {
+			while (true) {
+				Batch b = full.take();
+				if (b == Batch.STOP)
+					break;
+				for (int i = 0; i < b.size; i++)
+					sampler.edge(b.sources[i], b.targets[i], b.times[i]);
+				if (b.endOfFile >= 0) {
+					sampler.endOfTimestep(b.endOfFile);
+					handler.endOfFile(b.endOfFile, b.names);
+				}
+				b.clear();
+				free.offer(b);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while sampling", e);
+		} finally {
+			// the reading thread may wait for room in the queue after a failure here
+			reader.interrupt();
+			try {
+				reader.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (reader.failure != null)
+			throw new IOException("Reading the input failed", reader.failure);
+	}
+
+	private class Reader extends Thread implements EdgeHandler {
+		private final String folder;
+		private final int first;
+		private final int last;
+		private final MappedEdgeReader reader = new MappedEdgeReader(sampler.nodes());
+		private Batch batch = new Batch();
+		volatile RuntimeException failure;
+
+		Reader(String folder, int first, int last) {
+			super("file-reader");
+			setDaemon(true);
+			this.folder = folder;
+			this.first = first;
+			this.last = last;
+		}
+
+		public void run() {
+			try {
+				for (int fileName = first; fileName <= last; fileName++) {
+					System.out.println("Reading File : " + fileName + "    ..............");
+					try {
+						reader.read(new File(folder + "//" + fileName), this);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					batch.endOfFile = fileName;
+					batch.names = sampler.nodes().names();
+					hand();
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (CancellationException e) {
+				return;
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+			try {
+				full.put(Batch.STOP);
+			} catch (InterruptedException e) {
+				// the sampling thread has stopped
+			}
+		}
+
+		public void edge(int source, int target, long time) {
+			if (batch.add(source, target, time)) {
+				try {
+					hand();
+				} catch (InterruptedException e) {
+					// the sampling thread has stopped, unwinds the MappedEdgeReader
+					throw new CancellationException();
+				}
+			}
+		}
+
+		private void hand() throws InterruptedException {
+			full.put(batch);
+			batch = free.poll();
+			if (batch == null)
+				batch = new Batch();
+		}
+	}
+
+	private static class Batch {
+		static final Batch STOP = new Batch(0);
+
+		final int[] sources;
+		final int[] targets;
+		final long[] times;
+		int size = 0;
+		// the number of the file whose last edges these are, -1 while it goes on
+		int endOfFile = -1;
+		NodeDictionary.Names names;
+
+		Batch() {
+			this(BATCH_SIZE);
+		}
+
+		private Batch(int capacity) {
+			sources = new int[capacity];
+			targets = new int[capacity];
+			times = new long[capacity];
+		}
+
+		// returns true when the batch is full
+		boolean add(int source, int target, long time) {
+			sources[size] = source;
+			targets[size] = target;
+			times[size] = time;
+			return ++size == sources.length;
+		}
+
+		void clear() {
+			size = 0;
+			endOfFile = -1;
+			names = null;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/* The columns of an EdgeTable as primitive arrays on the Java heap, grown by copying.
+ * scaleWeights is a plain counted loop over the weight array, which C2 unrolls into SIMD multiplies, and below
+ * appends every id and advances by the comparison, so it runs without branches whatever the share of light edges.
+ */
+package dynamic.sampling;
+
+import java.util.Arrays;
+
+class HeapEdgeColumns extends EdgeColumns {
+	private int[] slots;
+	private long[] keys;
+	private double[] weights;
+	private int[] counts;
+	private long[] lastSeen;
+
+	HeapEdgeColumns(int slotCount, int capacity) {
+		resetSlots(slotCount);
+		keys = new long[capacity];
+		weights = new double[capacity];
+		counts = new int[capacity];
+		lastSeen = new long[capacity];
+	}
+
+	int slotCount() {
+		return slots.length;
+	}
+
+	int slot(int slot) {
+		return slots[slot];
+	}
+
+	void setSlot(int slot, int id) {
+		slots[slot] = id;
+	}
+
+	void resetSlots(int slotCount) {
+		if (slots == null || slots.length != slotCount)
+			slots = new int[slotCount];
+		Arrays.fill(slots, EMPTY);
+	}
+
+	int capacity() {
+		return keys.length;
+	}
+
+	void grow(int capacity) {
+		keys = Arrays.copyOf(keys, capacity);
+		weights = Arrays.copyOf(weights, capacity);
+		counts = Arrays.copyOf(counts, capacity);
+		lastSeen = Arrays.copyOf(lastSeen, capacity);
+	}
+
+	long key(int id) {
+		return keys[id];
+	}
+
+	void setKey(int id, long key) {
+		keys[id] = key;
+	}
+
+	double weight(int id) {
+		return weights[id];
+	}
+
+	void setWeight(int id, double weight) {
+		weights[id] = weight;
+	}
+
+	int count(int id) {
+		return counts[id];
+	}
+
+	void setCount(int id, int count) {
+		counts[id] = count;
+	}
+
+	long lastSeen(int id) {
+		return lastSeen[id];
+	}
+
+	void setLastSeen(int id, long time) {
+		lastSeen[id] = time;
+	}
+
+	void scaleWeights(int from, int to, double factor) {
+		scale(weights, from, to, factor);
+	}
+
+	int below(int from, int to, double threshold, boolean inclusive, int[] ids, int n) {
+		return below(weights, from, to, threshold, inclusive, ids, n);
+	}
+
+	// the two sweeps over any weight column, MultiScaleSBias runs them over its extra timescales
+	static void scale(double[] w, int from, int to, double factor) {
+		for (int id = from; id < to; id++)
+			w[id] *= factor;
+	}
+
+	static int below(double[] w, int from, int to, double threshold, boolean inclusive, int[] ids, int n) {
+		if (inclusive) {
+			for (int id = from; id < to; id++) {
+				ids[n] = id;
+				n += w[id] <= threshold ? 1 : 0;
+			}
+		} else {
+			for (int id = from; id < to; id++) {
+				ids[n] = id;
+				n += w[id] < threshold ? 1 : 0;
+			}
+		}
+		return n;
+	}
+
+	void move(int from, int to) {
+		keys[to] = keys[from];
+		weights[to] = weights[from];
+		counts[to] = counts[from];
+		lastSeen[to] = lastSeen[from];
+	}
+}
@@ -0,0 +1,69 @@
+/* Durations in nanoseconds in 64 power of two buckets, bucket b counting durations in [2^(b-1), 2^b), so recording is
+ * a leading zero count and a LongAdder increment without locks, from any number of threads.
+ * Percentiles are read as the upper bound of their bucket, at most twice the real value, enough to tell a 2 ms decay
+ * pause from a 200 ms one. Reads while others record see each bucket at some moment, not all at the same one.
+ */
+package dynamic.sampling;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram {
+	private static final int BUCKETS = 64;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	public LatencyHistogram() {
+		for (int b = 0; b < BUCKETS; b++)
+			buckets[b] = new LongAdder();
+	}
+
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets[BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+		count.increment();
+		total.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	public long count() {
+		return count.sum();
+	}
+
+	public long totalNanos() {
+		return total.sum();
+	}
+
+	public long maxNanos() {
+		return max.get();
+	}
+
+	public double meanNanos() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) total.sum() / n;
+	}
+
+	/** Upper bound of the duration below which the fraction q of the recorded durations fall, 0 when empty. */
+	public long percentileNanos(double q) {
+		long[] counts = new long[BUCKETS];
+		long n = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			counts[b] = buckets[b].sum();
+			n += counts[b];
+		}
+		if (n == 0)
+			return 0;
+		long rank = (long) Math.ceil(q * n);
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += counts[b];
+			if (seen >= rank)
+				return b == 0 ? 0 : b == BUCKETS - 1 ? max.get() : Math.min(max.get(), (1L << b) - 1);
+		}
+		return max.get();
+	}
+}
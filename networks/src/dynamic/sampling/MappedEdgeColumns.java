@@ -0,0 +1,183 @@
+/* The columns of an EdgeTable in memory-mapped files of a spill folder instead of the Java heap, so the sample is
+ * bounded by the disk and not by -Xmx, and the collector never sees, scans or copies the edges.
+ * An entry is one 32 byte record (key, weight, last seen, count) in the entries file, a probe slot an int in the slots
+ * file holding id + 1, so the zeros of a newly mapped region are empty slots and nothing has to be filled.
+ * Files are mapped in regions of REGION bytes, records never cross one, and grow by mapping the next region: entries
+ * are never copied. The operating system keeps the touched pages in memory, writes cold ones back to the file when
+ * memory runs short and reads them in again when an edge is touched, so the spill follows the access pattern.
+ * The slots file is kept for the whole run: a slot reset zeroes it in place, mapping more of it only when the table
+ * doubles its slots, so rebuilding the slots at every timestep creates no files and no mappings. Both files are deleted
+ * at exit.
+ * A disk that fills up while pages are written back fails the JVM with an InternalError.
+ */
+package dynamic.sampling;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+class MappedEdgeColumns extends EdgeColumns {
+	private static final int REGION_BITS = 27;
+	private static final int REGION = 1 << REGION_BITS;
+	private static final int RECORD_BITS = 5;
+	private static final int ENTRY_BITS = REGION_BITS - RECORD_BITS;
+	private static final int ENTRY_MASK = (1 << ENTRY_BITS) - 1;
+	private static final int SLOT_BITS = REGION_BITS - 2;
+	private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+	private static final int WEIGHT = 8;
+	private static final int LAST_SEEN = 16;
+	private static final int COUNT = 24;
+
+	private final Mapping entries;
+	private final Mapping slots;
+	private int slotCount;
+
+	MappedEdgeColumns(File folder, int slotCount, int capacity) {
+		folder.mkdirs();
+		entries = new Mapping(folder, "entries");
+		slots = new Mapping(folder, "slots");
+		grow(capacity);
+		resetSlots(slotCount);
+	}
+
+	int slotCount() {
+		return slotCount;
+	}
+
+	int slot(int slot) {
+		return slots.regions[slot >>> SLOT_BITS].getInt((slot & SLOT_MASK) << 2) - 1;
+	}
+
+	void setSlot(int slot, int id) {
+		slots.regions[slot >>> SLOT_BITS].putInt((slot & SLOT_MASK) << 2, id + 1);
+	}
+
+	void resetSlots(int slotCount) {
+		long bytes = (long) slotCount << 2;
+		slots.map(bytes);
+		slots.clear(bytes);
+		this.slotCount = slotCount;
+	}
+
+	int capacity() {
+		return (int) Math.min(Integer.MAX_VALUE, entries.size >>> RECORD_BITS);
+	}
+
+	void grow(int capacity) {
+		entries.map((long) capacity << RECORD_BITS);
+	}
+
+	long key(int id) {
+		return entries.regions[id >>> ENTRY_BITS].getLong((id & ENTRY_MASK) << RECORD_BITS);
+	}
+
+	void setKey(int id, long key) {
+		entries.regions[id >>> ENTRY_BITS].putLong((id & ENTRY_MASK) << RECORD_BITS, key);
+	}
+
+	double weight(int id) {
+		return entries.regions[id >>> ENTRY_BITS].getDouble(((id & ENTRY_MASK) << RECORD_BITS) + WEIGHT);
+	}
+
+	void setWeight(int id, double weight) {
+		entries.regions[id >>> ENTRY_BITS].putDouble(((id & ENTRY_MASK) << RECORD_BITS) + WEIGHT, weight);
+	}
+
+	int count(int id) {
+		return entries.regions[id >>> ENTRY_BITS].getInt(((id & ENTRY_MASK) << RECORD_BITS) + COUNT);
+	}
+
+	void setCount(int id, int count) {
+		entries.regions[id >>> ENTRY_BITS].putInt(((id & ENTRY_MASK) << RECORD_BITS) + COUNT, count);
+	}
+
+	long lastSeen(int id) {
+		return entries.regions[id >>> ENTRY_BITS].getLong(((id & ENTRY_MASK) << RECORD_BITS) + LAST_SEEN);
+	}
+
+	void setLastSeen(int id, long time) {
+		entries.regions[id >>> ENTRY_BITS].putLong(((id & ENTRY_MASK) << RECORD_BITS) + LAST_SEEN, time);
+	}
+
+	void scaleWeights(int from, int to, double factor) {
+		for (int id = from; id < to; id++)
+			setWeight(id, weight(id) * factor);
+	}
+
+	int below(int from, int to, double threshold, boolean inclusive, int[] ids, int n) {
+		for (int id = from; id < to; id++) {
+			double w = weight(id);
+			if (inclusive ? w <= threshold : w < threshold)
+				ids[n++] = id;
+		}
+		return n;
+	}
+
+	void move(int from, int to) {
+		setKey(to, key(from));
+		setWeight(to, weight(from));
+		setCount(to, count(from));
+		setLastSeen(to, lastSeen(from));
+	}
+
+	// a file of the spill folder mapped region by region, the last region only as far as asked for
+	private static class Mapping {
+		final File file;
+		final FileChannel channel;
+		MappedByteBuffer[] regions = new MappedByteBuffer[0];
+		long size = 0;
+
+		Mapping(File folder, String name) {
+			try {
+				file = File.createTempFile(name, ".spill", folder);
+				file.deleteOnExit();
+				channel = new RandomAccessFile(file, "rw").getChannel();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot create a spill file in " + folder, e);
+			}
+		}
+
+		// maps at least bytes bytes, a single region is remapped at twice its length, more regions are whole
+		void map(long bytes) {
+			if (bytes <= size)
+				return;
+			int count = (int) ((bytes + REGION - 1) >>> REGION_BITS);
+			long last = count == 1 ? Long.highestOneBit(bytes * 2 - 1) : REGION;
+			try {
+				regions = Arrays.copyOf(regions, count);
+				for (int r = 0; r < count; r++) {
+					long length = r == count - 1 ? last : REGION;
+					if (regions[r] == null || regions[r].capacity() < length)
+						regions[r] = map((long) r << REGION_BITS, length);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot map " + bytes + " bytes of " + file, e);
+			}
+			size = (long) (count - 1) * REGION + last;
+		}
+
+		private MappedByteBuffer map(long position, long length) throws IOException {
+			MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE, position, length);
+			region.order(ByteOrder.nativeOrder());
+			return region;
+		}
+
+		// zeroes the first bytes of the file through the mapped regions, bytes is a multiple of 4
+		void clear(long bytes) {
+			for (int r = 0; (long) r << REGION_BITS < bytes; r++) {
+				MappedByteBuffer region = regions[r];
+				int end = (int) Math.min(region.capacity(), bytes - ((long) r << REGION_BITS));
+				int i = 0;
+				for (; i + 8 <= end; i += 8)
+					region.putLong(i, 0L);
+				if (i < end)
+					region.putInt(i, 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/* Reads a SOURCE,TARGET[,TIMESTAMP] csv edge file through a memory-mapped FileChannel and hands every edge to an EdgeHandler.
+ * Fields are parsed straight from the mapped bytes: node names are interned into the NodeDictionary without building
+ * a String and the timestamp is read as its digits, so nothing is allocated per line once the nodes are known.
+ * Only the first line is checked for the SOURCE header. Blank lines and lines with less than two fields are skipped.
+ * Large files are mapped in windows, a line cut by the end of a window is read again from the next one.
+ */
+package dynamic.sampling;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class MappedEdgeReader {
+	private static final int WINDOW = 1 << 28;
+	private static final byte[] HEADER = { 'S', 'O', 'U', 'R', 'C', 'E' };
+
+	private final NodeDictionary nodes;
+	private boolean firstLine;
+	private long edges;
+
+	public MappedEdgeReader(NodeDictionary nodes) {
+		this.nodes = nodes;
+	}
+
+	public NodeDictionary nodes() {
+		return nodes;
+	}
+
+	/** Reads the whole file and returns the number of edges handed to the handler. */
+	public long read(File file, EdgeHandler handler) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			long position = 0;
+			edges = 0;
+			firstLine = true;
+			while (position < size) {
+				int length = (int) Math.min(WINDOW, size - position);
+				boolean last = position + length == size;
+				MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				int consumed = parseLines(buf, 0, length, last, handler);
+				if (consumed == 0 && !last)
+					throw new IOException("Line longer than " + WINDOW + " bytes at offset " + position + " in " + file);
+				position += consumed;
+			}
+			return edges;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/** Starts a new input, the next line parsed is checked for the header. */
+	public void reset() {
+		firstLine = true;
+		edges = 0;
+	}
+
+	public long edgesRead() {
+		return edges;
+	}
+
+	/**
+	 * Parses the complete lines in buf[from, to) and returns the offset after the last one, relative to from.
+	 * When last is set the bytes after the final line break are a line as well.
+	 */
+	public int parseLines(ByteBuffer buf, int from, int to, boolean last, EdgeHandler handler) {
+		int lineStart = from;
+		int p = from;
+		while (p < to) {
+			if (buf.get(p) == '\n') {
+				parseLine(buf, lineStart, p, handler);
+				lineStart = p + 1;
+			}
+			p++;
+		}
+		if (last && lineStart < to) {
+			parseLine(buf, lineStart, to, handler);
+			lineStart = to;
+		}
+		return lineStart - from;
+	}
+
+	private void parseLine(ByteBuffer buf, int start, int end, EdgeHandler handler) {
+		if (end > start && buf.get(end - 1) == '\r')
+			end--;
+		if (firstLine) {
+			firstLine = false;
+			if (startsWith(buf, start, end, HEADER))
+				return;
+		}
+		int sourceEnd = indexOf(buf, start, end, (byte) ',');
+		if (sourceEnd < 0)
+			return;
+		int targetStart = sourceEnd + 1;
+		int targetEnd = indexOf(buf, targetStart, end, (byte) ',');
+		long time = 0;
+		if (targetEnd < 0) {
+			targetEnd = end;
+		} else {
+			int timeEnd = indexOf(buf, targetEnd + 1, end, (byte) ',');
+			time = parseDigits(buf, targetEnd + 1, timeEnd < 0 ? end : timeEnd);
+		}
+		int source = intern(buf, start, sourceEnd);
+		int target = intern(buf, targetStart, targetEnd);
+		edges++;
+		handler.edge(source, target, time);
+	}
+
+	private int intern(ByteBuffer buf, int start, int end) {
+		while (start < end && isBlank(buf.get(start)))
+			start++;
+		while (end > start && isBlank(buf.get(end - 1)))
+			end--;
+		return nodes.intern(buf, start, end - start);
+	}
+
+	/** The digits of buf[start, end) as one number, every other byte is ignored. */
+	public static long parseDigits(ByteBuffer buf, int start, int end) {
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			int d = buf.get(i) - '0';
+			if (d >= 0 && d <= 9)
+				value = value * 10 + d;
+		}
+		return value;
+	}
+
+	private static int indexOf(ByteBuffer buf, int start, int end, byte b) {
+		for (int i = start; i < end; i++)
+			if (buf.get(i) == b)
+				return i;
+		return -1;
+	}
+
+	private static boolean startsWith(ByteBuffer buf, int start, int end, byte[] prefix) {
+		if (end - start < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++)
+			if (buf.get(start + i) != prefix[i])
+				return false;
+		return true;
+	}
+
+	private static boolean isBlank(byte b) {
+		return b == ' ' || b == '\t';
+	}
+}
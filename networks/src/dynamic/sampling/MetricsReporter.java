@@ -0,0 +1,89 @@
+/* Prints the SamplerMetrics of named samplers every period on a daemon thread, one line per sampler, to the console
+ * or appended to a file: edges and edges/sec since the last line, sample size, timesteps, replacements and evictions
+ * per second, and mean, p99 and max of decay pauses and snapshot writes in milliseconds.
+ * close prints a last line, so a run shorter than the period is reported as well.
+ */
+package dynamic.sampling;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+public class MetricsReporter {
+	private final PrintStream out;
+	private final List<String> names = new ArrayList<String>();
+	private final List<SamplerMetrics> metrics = new ArrayList<SamplerMetrics>();
+	private final List<long[]> last = new ArrayList<long[]>();
+	private final ScheduledExecutorService timer;
+	private long lastNanos = System.nanoTime();
+
+	/** Reports every periodSeconds to the console. */
+	public MetricsReporter(int periodSeconds) {
+		this(periodSeconds, System.out);
+	}
+
+	/** Reports every periodSeconds to the end of the file. */
+	public MetricsReporter(int periodSeconds, String file) throws IOException {
+		this(periodSeconds, new PrintStream(new FileOutputStream(file, true), true));
+	}
+
+	private MetricsReporter(int periodSeconds, PrintStream out) {
+		this.out = out;
+		timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "metrics-reporter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		timer.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				report();
+			}
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+
+	public synchronized void add(String name, SamplerMetrics m) {
+		names.add(name);
+		metrics.add(m);
+		last.add(new long[3]);
+	}
+
+	public synchronized void report() {
+		long now = System.nanoTime();
+		double seconds = Math.max(1e-9, (now - lastNanos) / 1e9);
+		lastNanos = now;
+		for (int i = 0; i < metrics.size(); i++) {
+			SamplerMetrics m = metrics.get(i);
+			long[] previous = last.get(i);
+			long edges = m.getEdges();
+			long replacements = m.getReplacements();
+			long evictions = m.getEvictions();
+			out.println(String.format(Locale.ROOT,
+					"%s: edges %d (%.0f/s), sample %d, timesteps %d, replacements %.0f/s, evictions %.0f/s,"
+							+ " decay %.2f/%.2f/%.2f ms, snapshot %.2f/%.2f/%.2f ms",
+					names.get(i), edges, (edges - previous[0]) / seconds, m.getSampleSize(), m.getTimesteps(),
+					(replacements - previous[1]) / seconds, (evictions - previous[2]) / seconds, m.getDecayMeanMillis(),
+					m.getDecayP99Millis(), m.getDecayMaxMillis(), m.getSnapshotMeanMillis(), m.getSnapshotP99Millis(),
+					m.getSnapshotMaxMillis()));
+			previous[0] = edges;
+			previous[1] = replacements;
+			previous[2] = evictions;
+		}
+	}
+
+	/** Stops the timer after a last report. */
+	public void close() {
+		timer.shutdownNow();
+		report();
+		if (out != System.out)
+			out.close();
+	}
+}
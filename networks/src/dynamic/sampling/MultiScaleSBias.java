@@ -0,0 +1,377 @@
+/* SBias with several forgetting factors over one pass of the stream, for short and long term views of the same
+ * network or a sweep over ATT_FACTORS and THRESHOLDS without a run per pair.
+ * Every edge carries one weight per timescale (factor, threshold): the first in the weight column of the EdgeTable,
+ * the others in columns of their own indexed by the entry id, so a stream edge costs one probe for all timescales.
+ * At a timestep change the columns are swept block by block like EdgeTable.decay: each block of a column is multiplied
+ * by its factor and the edges below its threshold are forgotten by setting their weight to NaN, as the eager SBias
+ * removes them. A forgotten edge that comes back starts again from 1 in that timescale. An edge leaves the table only
+ * once every timescale has forgotten it. Each timescale counts the edges it holds as they come and go.
+ * Every timescale is an EdgeSampler of its own through timescale(i), its snapshot is the sample an eager SBias with
+ * that factor and threshold would hold, weight for weight. The counts are shared: the stream edges an entry absorbed
+ * since it entered any timescale. The sampler itself is its first timescale.
+ * Snapshots are csv, one folder per timescale named <factor>_<threshold> under the output folder.
+ */
+package dynamic.sampling;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+
+public class MultiScaleSBias implements Checkpointable {
+	// one timescale per pair of ATT_FACTORS and THRESHOLDS
+	private static double[] ATT_FACTORS = { 0.9, 0.5 };
+	private static double[] THRESHOLDS = { 0.1, 0.3 };
+	private static boolean DIRECTED = true;
+	private static TimestepBucketer TIMESTEP = TimestepBucketer.DAY;
+	private static boolean GZIP_OUTPUT = false;
+	// save the sampler state every n files, 0 for never, RESUME continues after the last saved file
+	private static int CHECKPOINT_EVERY = 0;
+	private static boolean RESUME = false;
+	// seconds between metric lines on the console, 0 for none, the metrics are in JMX either way
+	private static int METRICS_EVERY = 0;
+	// parse the next file on a thread of its own while this one is sampled, see FilePipeline
+	private static boolean PIPELINED = false;
+	private static int start_file_num = 1;
+	private static int last_file_num = 100;
+	public static final String INPUT_FOLDER_NAME = "/folder/path/";
+	public static final String OUTPUT_FOLDER_NAME = "/result/folder/path/";
+
+	private final NodeDictionary nodes;
+	private final MappedEdgeReader reader;
+	private final EdgeTable edgeMap;
+	private final double[] attFactors;
+	private final double[] thresholds;
+	// weights of the timescales after the first, by entry id
+	private final double[][] weights;
+	private final Timescale[] timescales;
+	// ids a sweep found below a threshold, one block per timescale
+	private final int[] forgotten;
+	private final TimestepBucketer bucketer;
+	private final SamplerMetrics metrics = new SamplerMetrics();
+	private boolean started = false;
+	private long currentDate;
+	private long timestep = 0;
+
+	public MultiScaleSBias(NodeDictionary nodes, double[] attFactors, double[] thresholds, boolean directed,
+			TimestepBucketer bucketer) {
+		if (attFactors.length == 0 || attFactors.length != thresholds.length)
+			throw new IllegalArgumentException("Need one threshold per forgetting factor, got " + attFactors.length
+					+ " factors and " + thresholds.length + " thresholds");
+		this.nodes = nodes;
+		this.reader = new MappedEdgeReader(nodes);
+		this.edgeMap = new EdgeTable(1024, directed);
+		this.attFactors = attFactors.clone();
+		this.thresholds = thresholds.clone();
+		this.weights = new double[attFactors.length - 1][edgeMap.capacity()];
+		this.timescales = new Timescale[attFactors.length];
+		for (int i = 0; i < timescales.length; i++)
+			timescales[i] = new Timescale(i);
+		this.forgotten = new int[EdgeTable.SWEEP_BLOCK * timescales.length];
+		this.bucketer = bucketer;
+	}
+
+	public static void main(String[] args) {
+		try {
+			long startTimeinMilliSeconds = new Date().getTime();
+			final MultiScaleSBias sampler = new MultiScaleSBias(new NodeDictionary(), ATT_FACTORS, THRESHOLDS, DIRECTED,
+					TIMESTEP);
+			final SnapshotWriter snapshots = new SnapshotWriter(GZIP_OUTPUT, true);
+			final CheckpointWriter checkpoints = new CheckpointWriter(new File(OUTPUT_FOLDER_NAME + "checkpoint"),
+					snapshots);
+			final File[] folders = new File[sampler.timescales()];
+			for (int i = 0; i < folders.length; i++) {
+				folders[i] = new File(OUTPUT_FOLDER_NAME + ATT_FACTORS[i] + "_" + THRESHOLDS[i]);
+				folders[i].mkdirs();
+			}
+			sampler.metrics().register("MultiScaleSBias");
+			MetricsReporter reporter = METRICS_EVERY > 0 ? new MetricsReporter(METRICS_EVERY) : null;
+			if (reporter != null)
+				reporter.add("MultiScaleSBias", sampler.metrics());
+			int first = start_file_num;
+			if (RESUME) {
+				long done = checkpoints.resume(sampler);
+				if (done >= 0)
+					first = (int) done + 1;
+			}
+			FilePipeline.FileHandler outputs = new FilePipeline.FileHandler() {
+				public void endOfFile(int fileName, NodeDictionary.Names names) throws IOException {
+					for (int i = 0; i < folders.length; i++)
+						snapshots.write(sampler.timescale(i), names, new File(folders[i], String.valueOf(fileName)));
+					if (CHECKPOINT_EVERY > 0 && fileName % CHECKPOINT_EVERY == 0)
+						checkpoints.write(sampler, names, fileName);
+				}
+			};
+			if (PIPELINED) {
+				new FilePipeline(sampler).run(INPUT_FOLDER_NAME, first, last_file_num, outputs);
+			} else {
+				for (int fileName = first; fileName <= last_file_num; fileName++) {
+					System.out.println("Reading File : " + fileName + "    ..............");
+					try {
+						sampler.read(new File(INPUT_FOLDER_NAME + fileName));
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					outputs.endOfFile(fileName, sampler.nodes().names());
+				}
+			}
+			snapshots.close();
+			if (reporter != null)
+				reporter.close();
+			long endTimeinMilliSeconds = new Date().getTime();
+
+			System.out.println("Time to compute in MilliSeconds: " + (endTimeinMilliSeconds - startTimeinMilliSeconds));
+			System.out.println("DONE !");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void read(File file) throws IOException {
+		reader.read(file, this);
+	}
+
+	public void edge(int source, int target, long time) {
+		long date = bucketer.bucket(time);
+		long key = edgeMap.keyOf(source, target);
+		if (started && date != currentDate) {
+			metrics.timesteps.increment();
+			nextTimestep();
+		}
+		add(key);
+		currentDate = date;
+		started = true;
+	}
+
+	private void add(long key) {
+		int id = edgeMap.upsert(key);
+		if (weights.length > 0 && id >= weights[0].length)
+			growColumns();
+		boolean added = edgeMap.getCount(id) == 0;
+		edgeMap.setCount(id, edgeMap.getCount(id) + 1);
+		edgeMap.setLastSeen(id, timestep);
+		// a timescale that forgot the edge starts it again from nothing
+		double w = edgeMap.getWeight(id);
+		if (added || Double.isNaN(w)) {
+			edgeMap.setWeight(id, 1.0);
+			timescales[0].size++;
+		} else {
+			edgeMap.setWeight(id, w + 1.0);
+		}
+		for (int i = 0; i < weights.length; i++) {
+			w = weights[i][id];
+			if (added || Double.isNaN(w)) {
+				weights[i][id] = 1.0;
+				timescales[i + 1].size++;
+			} else {
+				weights[i][id] = w + 1.0;
+			}
+		}
+		metrics.edges.increment();
+		if (added)
+			metrics.sampleSize.increment();
+	}
+
+	private void growColumns() {
+		for (int i = 0; i < weights.length; i++)
+			weights[i] = Arrays.copyOf(weights[i], edgeMap.capacity());
+	}
+
+	// per block of ids: each timescale scales its column and forgets the ids it finds below its threshold, then the
+	// ids every timescale has forgotten leave the table. Forgotten and free ids weigh NaN, which below never returns.
+	private void nextTimestep() {
+		long start = System.nanoTime();
+		int before = edgeMap.size();
+		timestep++;
+		int limit = edgeMap.limit();
+		for (int from = 0; from < limit; from += EdgeTable.SWEEP_BLOCK) {
+			int to = Math.min(limit, from + EdgeTable.SWEEP_BLOCK);
+			edgeMap.scaleWeights(from, to, attFactors[0]);
+			int n = edgeMap.below(from, to, thresholds[0], false, forgotten, 0);
+			for (int j = 0; j < n; j++)
+				edgeMap.setWeight(forgotten[j], Double.NaN);
+			timescales[0].size -= n;
+			for (int i = 0; i < weights.length; i++) {
+				double[] column = weights[i];
+				HeapEdgeColumns.scale(column, from, to, attFactors[i + 1]);
+				int m = HeapEdgeColumns.below(column, from, to, thresholds[i + 1], false, forgotten, n);
+				for (int j = n; j < m; j++)
+					column[forgotten[j]] = Double.NaN;
+				timescales[i + 1].size -= m - n;
+				n = m;
+			}
+			// an id forgotten by several timescales is listed once per timescale, isLive skips it once removed
+			for (int j = 0; j < n; j++) {
+				int id = forgotten[j];
+				if (edgeMap.isLive(id) && forgottenByAll(id))
+					edgeMap.remove(id);
+			}
+		}
+		for (Timescale t : timescales)
+			t.decay *= t.attFactor;
+		metrics.evictions.add(before - edgeMap.size());
+		metrics.sampleSize.add(edgeMap.size() - before);
+		metrics.decay.record(System.nanoTime() - start);
+	}
+
+	private boolean forgottenByAll(int id) {
+		if (!Double.isNaN(edgeMap.getWeight(id)))
+			return false;
+		for (double[] column : weights)
+			if (!Double.isNaN(column[id]))
+				return false;
+		return true;
+	}
+
+	public int timescales() {
+		return timescales.length;
+	}
+
+	/** The sample of the i-th pair of factor and threshold, it shares the edge table and reads its own weights. */
+	public EdgeSampler timescale(int i) {
+		return timescales[i];
+	}
+
+	/** Weight of an entry in the i-th timescale, NaN when that timescale has forgotten it. */
+	public double weightOf(int i, int id) {
+		return i == 0 ? edgeMap.getWeight(id) : weights[i - 1][id];
+	}
+
+	// no timesteps to close, the timescales decay on the timestamps of the edges like SBias
+	public void endOfTimestep(long timestep) {
+	}
+
+	public void forEachEdge(EdgeVisitor visitor) {
+		timescales[0].forEachEdge(visitor);
+	}
+
+	/** Edges held by any timescale. */
+	public int size() {
+		return edgeMap.size();
+	}
+
+	public EdgeTable edges() {
+		return edgeMap;
+	}
+
+	public double weightOf(int id) {
+		return edgeMap.getWeight(id);
+	}
+
+	public double takeDecay() {
+		return timescales[0].takeDecay();
+	}
+
+	public NodeDictionary nodes() {
+		return nodes;
+	}
+
+	public SamplerMetrics metrics() {
+		return metrics;
+	}
+
+	public void writeState(DataOutput out) throws IOException {
+		out.writeInt(attFactors.length);
+		for (int i = 0; i < attFactors.length; i++) {
+			out.writeDouble(attFactors[i]);
+			out.writeDouble(thresholds[i]);
+		}
+		out.writeBoolean(started);
+		out.writeLong(currentDate);
+		out.writeLong(timestep);
+		for (Timescale t : timescales)
+			out.writeDouble(t.decay);
+		edgeMap.writeTo(out);
+		for (double[] column : weights)
+			for (int id = 0; id < edgeMap.limit(); id++)
+				out.writeDouble(column[id]);
+	}
+
+	public void readState(DataInput in) throws IOException {
+		boolean same = in.readInt() == attFactors.length;
+		for (int i = 0; same && i < attFactors.length; i++)
+			same = in.readDouble() == attFactors[i] && in.readDouble() == thresholds[i];
+		if (!same)
+			throw new IOException("Checkpoint was written by a MultiScaleSBias with other timescales");
+		started = in.readBoolean();
+		currentDate = in.readLong();
+		timestep = in.readLong();
+		for (Timescale t : timescales)
+			t.decay = in.readDouble();
+		int before = edgeMap.size();
+		edgeMap.readFrom(in);
+		metrics.sampleSize.add(edgeMap.size() - before);
+		growColumns();
+		for (double[] column : weights)
+			for (int id = 0; id < edgeMap.limit(); id++)
+				column[id] = in.readDouble();
+		for (Timescale t : timescales) {
+			t.size = 0;
+			for (int id = 0; id < edgeMap.limit(); id++)
+				if (edgeMap.isLive(id) && !Double.isNaN(t.weightOf(id)))
+					t.size++;
+		}
+	}
+
+	// one timescale seen as a sampler of its own, the edges it forgot weigh NaN and are skipped
+	private class Timescale implements EdgeSampler {
+		private final int index;
+		private final double attFactor;
+		private double decay = 1.0;
+		// live entries this timescale has not forgotten
+		private int size = 0;
+
+		Timescale(int index) {
+			this.index = index;
+			this.attFactor = attFactors[index];
+		}
+
+		public void edge(int source, int target, long time) {
+			MultiScaleSBias.this.edge(source, target, time);
+		}
+
+		public void endOfTimestep(long timestep) {
+		}
+
+		public void forEachEdge(EdgeVisitor visitor) {
+			for (int id = 0; id < edgeMap.limit(); id++) {
+				if (!edgeMap.isLive(id))
+					continue;
+				double weight = weightOf(id);
+				if (Double.isNaN(weight))
+					continue;
+				long key = edgeMap.getKey(id);
+				visitor.edge(EdgeTable.source(key), EdgeTable.target(key), weight, edgeMap.getCount(id));
+			}
+		}
+
+		/** Edges held by this timescale. */
+		public int size() {
+			return size;
+		}
+
+		public EdgeTable edges() {
+			return edgeMap;
+		}
+
+		public double weightOf(int id) {
+			return MultiScaleSBias.this.weightOf(index, id);
+		}
+
+		public double takeDecay() {
+			double d = decay;
+			decay = 1.0;
+			return d;
+		}
+
+		public NodeDictionary nodes() {
+			return nodes;
+		}
+
+		public SamplerMetrics metrics() {
+			return metrics;
+		}
+	}
+}
@@ -0,0 +1,278 @@
+/* Runs any number of sampler configurations over one pass of the input files, for parameter sweeps.
+ * Every input file is parsed once. The edges are handed out in batches to one worker thread per configuration,
+ * so the samplers run on separate cores and share the interned nodes. A file ends with a marker after which each
+ * worker closes the timestep of its sampler, as the batch programs do per file, and writes its snapshot numbered
+ * like the input file into the output folder of its configuration. Nodes are only interned by the reading thread,
+ * which hands the workers a view of the names with the end of file marker. A slow sampler holds the reading back once
+ * QUEUED_BATCHES batches wait for it, so memory stays bounded.
+ *
+ * Usage: MultiplexedRunner <config file> <input folder> <first file> <last file> [<seconds between metric lines>]
+ * The config file holds one sampler per line, blank lines and lines starting with # are skipped:
+ *   <sbias|smoothing|reservoir|random> <output folder> [att=<factor>] [threshold=<t>] [reservoir=<size>]
+ *       [directed=true|false] [timestep=day|hour|month|<seconds>] [lazy=true|false] [skip=true|false] [seed=<long>]
+ *       [budget=<max sbias edges>] [gzip=true|false] [format=csv|binary] [spill=<folder>]
+ * The metrics of every sampler are registered in JMX as dynamic.sampling:type=Sampler,name=<output folder>.
+ */
+package dynamic.sampling;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public class MultiplexedRunner implements EdgeHandler {
+	private static final int BATCH_SIZE = 8192;
+	private static final int QUEUED_BATCHES = 16;
+
+	private final NodeDictionary nodes = new NodeDictionary();
+	private final MappedEdgeReader reader = new MappedEdgeReader(nodes);
+	private final List<Worker> workers = new ArrayList<Worker>();
+	private Batch batch = new Batch();
+	private MetricsReporter reporter;
+
+	public static void main(String[] args) {
+		if (args.length < 4) {
+			System.out.println("Usage: MultiplexedRunner <config file> <input folder> <first file> <last file>"
+					+ " [<seconds between metric lines>]");
+			return;
+		}
+		try {
+			long startTimeinMilliSeconds = new Date().getTime();
+			MultiplexedRunner runner = new MultiplexedRunner();
+			runner.configure(new File(args[0]));
+			if (args.length > 4)
+				runner.setMetricsReporter(new MetricsReporter(Integer.parseInt(args[4])));
+			runner.run(new File(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+			long endTimeinMilliSeconds = new Date().getTime();
+
+			System.out.println("Time to compute in MilliSeconds: " + (endTimeinMilliSeconds - startTimeinMilliSeconds));
+			System.out.println("DONE !");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void configure(File config) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(config));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				String[] split = line.split("\\s+");
+				if (split.length < 2)
+					throw new IOException("Expected <sampler> <output folder> in " + config + ": " + line);
+				Map<String, String> params = new HashMap<String, String>();
+				for (int i = 2; i < split.length; i++) {
+					int eq = split[i].indexOf('=');
+					if (eq < 0)
+						throw new IOException("Expected key=value in " + config + ": " + split[i]);
+					params.put(split[i].substring(0, eq), split[i].substring(eq + 1));
+				}
+				add(split[0], new File(split[1]), params);
+			}
+		} finally {
+			br.close();
+		}
+	}
+
+	/** Adds a sampler configuration writing its snapshots into folder. */
+	public void add(String samplerName, File folder, Map<String, String> params) {
+		double att = Double.parseDouble(param(params, "att", "1.0"));
+		double threshold = Double.parseDouble(param(params, "threshold", "0.0"));
+		int reservoir = Integer.parseInt(param(params, "reservoir", "1000"));
+		String seed = params.get("seed");
+		String spill = params.get("spill");
+		File spillFolder = spill == null ? null : new File(spill);
+		StreamRandom random = StreamRandom.of(seed == null ? null : Long.valueOf(seed));
+		EdgeSampler sampler;
+		if (samplerName.equals("sbias"))
+			sampler = new SBias(nodes, att, threshold, Boolean.parseBoolean(param(params, "lazy", "true")),
+					Boolean.parseBoolean(param(params, "directed", "true")),
+					StreamingEngine.parseTimestep(param(params, "timestep", "day")),
+					Integer.parseInt(param(params, "budget", "0")), spillFolder);
+		else if (samplerName.equals("smoothing"))
+			sampler = new ExponentialSmoothing(nodes, att, threshold,
+					Boolean.parseBoolean(param(params, "directed", "false")), spillFolder);
+		else if (samplerName.equals("reservoir"))
+			sampler = new ReservoirSampling(nodes, reservoir, Boolean.parseBoolean(param(params, "directed", "false")),
+					Boolean.parseBoolean(param(params, "skip", "false")), random);
+		else if (samplerName.equals("random"))
+			sampler = new RandomStreamSampling(nodes, reservoir,
+					Boolean.parseBoolean(param(params, "directed", "false")), random);
+		else
+			throw new IllegalArgumentException("Unknown sampler: " + samplerName);
+
+		folder.mkdirs();
+		String format = param(params, "format", "csv");
+		BinarySnapshotWriter binaryWriter = null;
+		if (format.equals("binary"))
+			binaryWriter = new BinarySnapshotWriter(att, threshold, reservoir);
+		else if (!format.equals("csv"))
+			throw new IllegalArgumentException("Unknown format: " + format);
+		Worker worker = new Worker(workers.size(), sampler, folder, binaryWriter,
+				Boolean.parseBoolean(param(params, "gzip", "false")));
+		workers.add(worker);
+		sampler.metrics().register(folder.getPath());
+	}
+
+	/** Prints the metrics of every configured sampler periodically while run reads. */
+	public void setMetricsReporter(MetricsReporter reporter) {
+		this.reporter = reporter;
+	}
+
+	private static String param(Map<String, String> params, String key, String defaultValue) {
+		String value = params.get(key);
+		return value == null ? defaultValue : value;
+	}
+
+	/** Reads the files first .. last of the folder once, feeding every configured sampler, and waits for them. */
+	public void run(File inputFolder, int first, int last) throws IOException {
+		for (Worker worker : workers) {
+			if (reporter != null)
+				reporter.add(worker.folder.getPath(), worker.sampler.metrics());
+			worker.start();
+		}
+		try {
+			for (int fileName = first; fileName <= last; fileName++) {
+				System.out.println("Reading File : " + fileName + "    ..............");
+				reader.read(new File(inputFolder, String.valueOf(fileName)), this);
+				dispatch();
+				dispatch(Batch.endOfFile(fileName, nodes.names()));
+			}
+		} finally {
+			dispatch(Batch.STOP);
+			for (Worker worker : workers) {
+				try {
+					worker.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (reporter != null)
+				reporter.close();
+		}
+		for (Worker worker : workers)
+			if (worker.failure != null)
+				throw new IOException("Sampler " + worker.getName() + " failed", worker.failure);
+	}
+
+	public void edge(int source, int target, long time) {
+		if (batch.add(source, target, time))
+			dispatch();
+	}
+
+	private void dispatch() {
+		if (batch.size == 0)
+			return;
+		dispatch(batch);
+		batch = new Batch();
+	}
+
+	// every worker gets the same batch, which is never written once handed out
+	private void dispatch(Batch b) {
+		for (Worker worker : workers) {
+			try {
+				worker.queue.put(b);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while handing edges to " + worker.getName(), e);
+			}
+		}
+	}
+
+	private static class Batch {
+		static final Batch STOP = new Batch(0);
+
+		final int[] sources;
+		final int[] targets;
+		final long[] times;
+		int size = 0;
+		// the number of the file that ended, -1 for a batch of edges
+		long endOfFile = -1;
+		NodeDictionary.Names names;
+
+		Batch() {
+			this(BATCH_SIZE);
+		}
+
+		private Batch(int capacity) {
+			sources = new int[capacity];
+			targets = new int[capacity];
+			times = new long[capacity];
+		}
+
+		static Batch endOfFile(long fileName, NodeDictionary.Names names) {
+			Batch b = new Batch(0);
+			b.endOfFile = fileName;
+			b.names = names;
+			return b;
+		}
+
+		// returns true when the batch is full
+		boolean add(int source, int target, long time) {
+			sources[size] = source;
+			targets[size] = target;
+			times[size] = time;
+			return ++size == sources.length;
+		}
+	}
+
+	private static class Worker extends Thread {
+		final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUED_BATCHES);
+		final EdgeSampler sampler;
+		final File folder;
+		final BinarySnapshotWriter binaryWriter;
+		final SnapshotWriter snapshots;
+		volatile Exception failure;
+
+		Worker(int index, EdgeSampler sampler, File folder, BinarySnapshotWriter binaryWriter, boolean gzip) {
+			super("sampler-" + index + "-" + folder.getName());
+			this.sampler = sampler;
+			this.folder = folder;
+			this.binaryWriter = binaryWriter;
+			// the worker is a thread of its own already, it writes its snapshots itself
+			this.snapshots = new SnapshotWriter(gzip, false);
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					Batch b = queue.take();
+					if (b == Batch.STOP)
+						return;
+					// after a failure the queue is still drained so the reading thread never blocks on it
+					if (failure != null)
+						continue;
+					try {
+						for (int i = 0; i < b.size; i++)
+							sampler.edge(b.sources[i], b.targets[i], b.times[i]);
+						if (b.endOfFile >= 0)
+							endOfFile(b.endOfFile, b.names);
+					} catch (Exception e) {
+						failure = e;
+					}
+				}
+			} catch (InterruptedException e) {
+				failure = e;
+			}
+		}
+
+		private void endOfFile(long fileName, NodeDictionary.Names names) throws IOException {
+			sampler.endOfTimestep(fileName);
+			if (binaryWriter != null)
+				binaryWriter.write(sampler, names, fileName, new File(folder, fileName + ".snap"));
+			else
+				snapshots.write(sampler, names, new File(folder, String.valueOf(fileName)));
+			System.out.println(getName() + ": snapshot " + fileName + ", " + sampler.size() + " edges");
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/* Interns node names read from the stream into dense int ids, so edges can be keyed by two ints
+ * instead of a concatenated String. Names are interned straight from the input bytes and kept in one
+ * byte array, a String is only made when a name is written out.
+ */
+package dynamic.sampling;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class NodeDictionary {
+	private static final int EMPTY = -1;
+
+	private int[] slots = new int[1024];
+	private int mask = slots.length - 1;
+	private byte[] bytes = new byte[8192];
+	private int used = 0;
+	private int[] offsets = new int[512];
+	private int[] lengths = new int[512];
+	private int[] hashes = new int[512];
+	private String[] names = new String[512];
+	private int size = 0;
+
+	public NodeDictionary() {
+		Arrays.fill(slots, EMPTY);
+	}
+
+	public int intern(String name) {
+		byte[] b = name.getBytes(StandardCharsets.UTF_8);
+		return intern(ByteBuffer.wrap(b), 0, b.length);
+	}
+
+	/** Interns the name held in buf[offset, offset + length) without moving the buffer position. */
+	public int intern(ByteBuffer buf, int offset, int length) {
+		int h = 0;
+		for (int i = 0; i < length; i++)
+			h = 31 * h + buf.get(offset + i);
+		h ^= h >>> 16;
+		int slot = h & mask;
+		int id;
+		while ((id = slots[slot]) != EMPTY) {
+			if (hashes[id] == h && matches(id, buf, offset, length))
+				return id;
+			slot = (slot + 1) & mask;
+		}
+		if (size == offsets.length) {
+			offsets = Arrays.copyOf(offsets, size * 2);
+			lengths = Arrays.copyOf(lengths, size * 2);
+			hashes = Arrays.copyOf(hashes, size * 2);
+			names = Arrays.copyOf(names, size * 2);
+		}
+		if (used + length > bytes.length)
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, used + length));
+		for (int i = 0; i < length; i++)
+			bytes[used + i] = buf.get(offset + i);
+		id = size++;
+		offsets[id] = used;
+		lengths[id] = length;
+		hashes[id] = h;
+		used += length;
+		slots[slot] = id;
+		if (size * 2 > slots.length)
+			resize();
+		return id;
+	}
+
+	private boolean matches(int id, ByteBuffer buf, int offset, int length) {
+		if (lengths[id] != length)
+			return false;
+		int start = offsets[id];
+		for (int i = 0; i < length; i++)
+			if (bytes[start + i] != buf.get(offset + i))
+				return false;
+		return true;
+	}
+
+	public String name(int id) {
+		String name = names[id];
+		if (name == null) {
+			name = new String(bytes, offsets[id], lengths[id], StandardCharsets.UTF_8);
+			names[id] = name;
+		}
+		return name;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** The names interned so far. The view stays valid, and can be read by another thread, while more names are interned. */
+	public Names names() {
+		return new Names(bytes, offsets, lengths, hashes, slots, size);
+	}
+
+	/** Writes the names in id order, interning them in that order gives every name its id again. */
+	public void writeTo(DataOutput out) throws IOException {
+		names().writeTo(out);
+	}
+
+	/** Interns the names written by writeTo into this dictionary, which must be empty. */
+	public void readFrom(DataInput in) throws IOException {
+		if (size > 0)
+			throw new IOException("Names can only be restored into an empty dictionary");
+		int n = in.readInt();
+		byte[] name = new byte[64];
+		for (int i = 0; i < n; i++) {
+			int length = in.readInt();
+			if (length > name.length)
+				name = new byte[Math.max(length, name.length * 2)];
+			in.readFully(name, 0, length);
+			intern(ByteBuffer.wrap(name), 0, length);
+		}
+	}
+
+	private void resize() {
+		slots = new int[slots.length * 2];
+		Arrays.fill(slots, EMPTY);
+		mask = slots.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hashes[id] & mask;
+			while (slots[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			slots[slot] = id;
+		}
+	}
+
+	/* Interning never changes the bytes of a name already stored and only replaces the arrays by larger copies,
+	 * so the arrays captured here keep describing the first size names. Interning only fills empty slots of the
+	 * probe table, so a lookup in the captured one finds every name of the view, ids of later names are skipped.
+	 */
+	public static class Names {
+		private final byte[] bytes;
+		private final int[] offsets;
+		private final int[] lengths;
+		private final int[] hashes;
+		private final int[] slots;
+		private final int size;
+
+		private Names(byte[] bytes, int[] offsets, int[] lengths, int[] hashes, int[] slots, int size) {
+			this.bytes = bytes;
+			this.offsets = offsets;
+			this.lengths = lengths;
+			this.hashes = hashes;
+			this.slots = slots;
+			this.size = size;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public String name(int id) {
+			return new String(bytes, offsets[id], lengths[id], StandardCharsets.UTF_8);
+		}
+
+		/** The id of the name, -1 when it was not interned when the view was made. */
+		public int find(String name) {
+			byte[] b = name.getBytes(StandardCharsets.UTF_8);
+			int h = 0;
+			for (int i = 0; i < b.length; i++)
+				h = 31 * h + b[i];
+			h ^= h >>> 16;
+			int mask = slots.length - 1;
+			int slot = h & mask;
+			int id;
+			while ((id = slots[slot]) != EMPTY) {
+				if (id < size && hashes[id] == h && equals(id, b))
+					return id;
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		private boolean equals(int id, byte[] b) {
+			if (lengths[id] != b.length)
+				return false;
+			for (int i = 0; i < b.length; i++)
+				if (bytes[offsets[id] + i] != b[i])
+					return false;
+			return true;
+		}
+
+		public int length(int id) {
+			return lengths[id];
+		}
+
+		/** Copies the bytes of the name into out, which must have length(id) bytes remaining. */
+		public void put(int id, ByteBuffer out) {
+			out.put(bytes, offsets[id], lengths[id]);
+		}
+
+		public ByteBuffer wrap(int id) {
+			return ByteBuffer.wrap(bytes, offsets[id], lengths[id]);
+		}
+
+		/** Writes the names of the view like NodeDictionary.writeTo. */
+		public void writeTo(DataOutput out) throws IOException {
+			out.writeInt(size);
+			for (int id = 0; id < size; id++) {
+				out.writeInt(lengths[id]);
+				out.write(bytes, offsets[id], lengths[id]);
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/* ReservoirSampling over many input files at once. Every file is sampled on its own by a worker thread into a
+ * reservoir with its own NodeDictionary and count of edges seen, and the partial reservoirs are combined with
+ * ReservoirSampling.merge into the reservoir of the whole stream, written as one snapshot.
+ * Only the final sample exists, use ReservoirSampling for a snapshot after every file.
+ */
+package dynamic.sampling;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ParallelReservoirSampling {
+	private static int reservoir_size = 1000;
+	private static int fileName = 1;
+	private static int lastfileName = 29;
+	private static boolean DIRECTED = false;
+	private static boolean SKIP_SAMPLING = false;
+	// seed of the random generators, null for a different sample every run
+	private static Long SEED = null;
+	// files sampled at the same time
+	private static int THREADS = Runtime.getRuntime().availableProcessors();
+
+	public static final String INPUT_FOLDER_NAME = "/home/input/";
+	public static final String OUTPUT_FOLDER_NAME = "/home/output/";
+
+	public static void main(String[] args) {
+		try {
+			long startTimeinMilliSeconds = new Date().getTime();
+			// every file gets its own generator split from one, so a seeded run is reproducible whatever the thread order
+			StreamRandom random = StreamRandom.of(SEED);
+			ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+			List<Future<ReservoirSampling>> futures = new ArrayList<Future<ReservoirSampling>>();
+			for (int f = fileName; f <= lastfileName; f++) {
+				final File file = new File(INPUT_FOLDER_NAME + f);
+				final StreamRandom partRandom = random.split();
+				futures.add(executor.submit(new Callable<ReservoirSampling>() {
+					public ReservoirSampling call() throws Exception {
+						ReservoirSampling part = new ReservoirSampling(new NodeDictionary(), reservoir_size, DIRECTED,
+								SKIP_SAMPLING, partRandom);
+						new MappedEdgeReader(part.nodes()).read(file, part);
+						System.out.println("Sampled File:" + file.getName() + ", " + part.seen() + " edges");
+						return part;
+					}
+				}));
+			}
+			List<ReservoirSampling> parts = new ArrayList<ReservoirSampling>();
+			for (Future<ReservoirSampling> future : futures)
+				parts.add(future.get());
+			executor.shutdown();
+
+			ReservoirSampling sampler = ReservoirSampling.merge(parts, new NodeDictionary(), reservoir_size, DIRECTED,
+					SKIP_SAMPLING, random);
+			SnapshotWriter.writeCsv(sampler, new File(OUTPUT_FOLDER_NAME + lastfileName));
+			long endTimeinMilliSeconds = new Date().getTime();
+
+			System.out.println("Time to compute in MilliSeconds: " + (endTimeinMilliSeconds - startTimeinMilliSeconds));
+			System.out.println("DONE !");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
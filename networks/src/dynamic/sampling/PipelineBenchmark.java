@@ -0,0 +1,119 @@
+/* End to end edges/sec of the file loop of the batch programs run sequentially and through a FilePipeline, with
+ * reading, sampling and csv snapshots written by a background SnapshotWriter, as the programs run it.
+ * Every round runs both over the same files, each into a folder of its own under the output folder, and checks that
+ * every snapshot of the pipelined run has the same bytes as the sequential one.
+ * Usage: PipelineBenchmark <input folder> <first file> <last file> <output folder> [-sampler sbias|smoothing|reservoir|random]
+ *        [-att factor] [-threshold t] [-reservoir size] [-seed n] [-rounds n]
+ */
+package dynamic.sampling;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class PipelineBenchmark {
+	private static String SAMPLER = "sbias";
+	private static double ATT_FACTOR = 0.5;
+	private static double THRESHOLD = 0.3;
+	private static int RESERVOIR = 100000;
+	private static long SEED = 1;
+	private static int ROUNDS = 3;
+
+	public static void main(String[] args) {
+		if (args.length < 4) {
+			System.out.println("Usage: PipelineBenchmark <input folder> <first file> <last file> <output folder>"
+					+ " [-sampler sbias|smoothing|reservoir|random] [-att factor] [-threshold t] [-reservoir size]"
+					+ " [-seed n] [-rounds n]");
+			return;
+		}
+		for (int i = 4; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			if (args[i].equals("-sampler"))
+				SAMPLER = value;
+			else if (args[i].equals("-att"))
+				ATT_FACTOR = Double.parseDouble(value);
+			else if (args[i].equals("-threshold"))
+				THRESHOLD = Double.parseDouble(value);
+			else if (args[i].equals("-reservoir"))
+				RESERVOIR = Integer.parseInt(value);
+			else if (args[i].equals("-seed"))
+				SEED = Long.parseLong(value);
+			else if (args[i].equals("-rounds"))
+				ROUNDS = Integer.parseInt(value);
+			else
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+		}
+		String input = args[0];
+		int first = Integer.parseInt(args[1]);
+		int last = Integer.parseInt(args[2]);
+		File sequentialFolder = new File(args[3], "sequential");
+		File pipelinedFolder = new File(args[3], "pipelined");
+		sequentialFolder.mkdirs();
+		pipelinedFolder.mkdirs();
+		try {
+			for (int round = 1; round <= ROUNDS; round++) {
+				long start = System.nanoTime();
+				long edges = sequential(input, first, last, sequentialFolder);
+				report("sequential", round, edges, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				pipelined(input, first, last, pipelinedFolder);
+				report("pipelined", round, edges, System.nanoTime() - start);
+
+				for (int fileName = first; fileName <= last; fileName++) {
+					byte[] expected = Files.readAllBytes(new File(sequentialFolder, String.valueOf(fileName)).toPath());
+					byte[] actual = Files.readAllBytes(new File(pipelinedFolder, String.valueOf(fileName)).toPath());
+					if (!Arrays.equals(expected, actual))
+						throw new IllegalStateException("Snapshot " + fileName + " differs from the sequential one");
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static EdgeSampler create() {
+		NodeDictionary nodes = new NodeDictionary();
+		if (SAMPLER.equals("sbias"))
+			return new SBias(nodes, ATT_FACTOR, THRESHOLD, true, true, TimestepBucketer.DAY);
+		if (SAMPLER.equals("smoothing"))
+			return new ExponentialSmoothing(nodes, ATT_FACTOR, THRESHOLD, false);
+		if (SAMPLER.equals("reservoir"))
+			return new ReservoirSampling(nodes, RESERVOIR, false, false, new StreamRandom(SEED));
+		if (SAMPLER.equals("random"))
+			return new RandomStreamSampling(nodes, RESERVOIR, false, new StreamRandom(SEED));
+		throw new IllegalArgumentException("Unknown sampler: " + SAMPLER);
+	}
+
+	// the loop of the programs' main, readFolderForGivenFiles inlined
+	private static long sequential(String input, int first, int last, File folder) throws IOException {
+		EdgeSampler sampler = create();
+		MappedEdgeReader reader = new MappedEdgeReader(sampler.nodes());
+		SnapshotWriter snapshots = new SnapshotWriter(false, true);
+		long edges = 0;
+		for (int fileName = first; fileName <= last; fileName++) {
+			edges += reader.read(new File(input + "//" + fileName), sampler);
+			sampler.endOfTimestep(fileName);
+			snapshots.write(sampler, new File(folder, String.valueOf(fileName)));
+		}
+		snapshots.close();
+		return edges;
+	}
+
+	private static void pipelined(String input, int first, int last, final File folder) throws IOException {
+		final EdgeSampler sampler = create();
+		final SnapshotWriter snapshots = new SnapshotWriter(false, true);
+		new FilePipeline(sampler).run(input, first, last, new FilePipeline.FileHandler() {
+			public void endOfFile(int fileName, NodeDictionary.Names names) throws IOException {
+				snapshots.write(sampler, names, new File(folder, String.valueOf(fileName)));
+			}
+		});
+		snapshots.close();
+	}
+
+	private static void report(String name, int round, long edges, long nanos) {
+		System.out.println(name + " round " + round + ": " + edges + " edges in " + nanos / 1000000 + " ms, "
+				+ (long) (edges / (nanos / 1e9)) + " edges/sec");
+	}
+}
@@ -6,59 +6,117 @@ Output: Sample snapshot.
 */
 package dynamic.sampling;
 
-import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
-import java.util.Map.Entry;
 
-public class RandomStreamSampling {
+public class RandomStreamSampling implements Checkpointable {
 
 	private static int reservoir_size = 100;
 	private static int fileName=1;
 	private static int lastfileName=100; 
-	private static Map<Integer,String> indexMap= new HashMap<Integer,String>();;
-	private static Map<String,Integer> edgeMap= new HashMap<String,Integer>();;
-	private static int index=0;
+	// set to true to keep both directions of an edge apart
+	private static boolean DIRECTED = false;
+	// 0 writes the whole sample after every file, n writes deltas with a full checkpoint every n files
+	private static int DELTA_CHECKPOINT_EVERY = 0;
+	// gzip the snapshot files
+	private static boolean GZIP_OUTPUT = false;
+	// write binary .snap snapshots, read with BinarySnapshot, instead of csv
+	private static boolean BINARY_OUTPUT = false;
+	// save the sampler state every n files, 0 for never, RESUME continues after the last saved file
+	private static int CHECKPOINT_EVERY = 0;
+	private static boolean RESUME = false;
+	// seconds between metric lines on the console, 0 for none, the metrics are in JMX either way
+	private static int METRICS_EVERY = 0;
+	// parse the next file on a thread of its own while this one is sampled, see FilePipeline
+	private static boolean PIPELINED = false;
+	// seed of the random generator, null for a different sample every run
+	private static Long SEED = null;
 	
 	public static final String INPUT_FOLDER_NAME = "/home/input/";
 	public static final String OUTPUT_FOLDER_NAME = "/home/output/";
+
+	private final NodeDictionary nodes;
+	private final MappedEdgeReader reader;
+	private final int reservoirSize;
+	// reservoir slot -> entry id of the edge in edgeMap
+	private final int[] indexMap;
+	private final EdgeTable edgeMap;
+	private int index=0;
+	// position in the stream, kept as the last seen time of an edge
+	private long stream_index=0;
+	private final StreamRandom random;
+	private final SamplerMetrics metrics = new SamplerMetrics();
+	// stream position last added to the edge counter, which is added to every EDGE_COUNT_STEP edges
+	private long countedEdges = 0;
+
+	public RandomStreamSampling(NodeDictionary nodes, int reservoirSize, boolean directed) {
+		this(nodes, reservoirSize, directed, new StreamRandom());
+	}
+
+	public RandomStreamSampling(NodeDictionary nodes, int reservoirSize, boolean directed, StreamRandom random) {
+		this.nodes = nodes;
+		this.reader = new MappedEdgeReader(nodes);
+		this.reservoirSize = reservoirSize;
+		this.indexMap = new int[reservoirSize];
+		this.edgeMap = new EdgeTable(reservoirSize, directed);
+		this.random = random;
+	}
 	
 	public static void main(String[] args) {
 		
 		try {
 			
 			long startTimeinMilliSeconds = new Date().getTime();
-
-											
-			for(; fileName<=lastfileName; fileName++){ //#of files in the folder
-				
-				readFolderForGivenFiles(fileName);
-				
-				File file = new File(OUTPUT_FOLDER_NAME +"//" +  fileName);
-				
-				// if file doesnt exists, then creates it
-				if (!file.exists()) {
-					file.createNewFile();
-				
-
-				FileWriter writer = new FileWriter(file, true);
-
-				writer.append("SOURCE,TARGET,WEIGHT");
-				for(Entry<String, Integer> og : edgeMap.entrySet()){
-					writer.append("\r\n"+og.getKey()+","+og.getValue());
+			final RandomStreamSampling sampler = new RandomStreamSampling(new NodeDictionary(), reservoir_size, DIRECTED,
+					StreamRandom.of(SEED));
+			final DeltaSnapshotWriter deltaWriter = DELTA_CHECKPOINT_EVERY > 0
+					? new DeltaSnapshotWriter(sampler, new File(OUTPUT_FOLDER_NAME), DELTA_CHECKPOINT_EVERY) : null;
+			// snapshots are written in the background while the next file is read
+			final SnapshotWriter snapshots = new SnapshotWriter(GZIP_OUTPUT, true);
+			final BinarySnapshotWriter binaryWriter = BINARY_OUTPUT ? new BinarySnapshotWriter(0, 0, reservoir_size) : null;
+			final CheckpointWriter checkpoints = new CheckpointWriter(new File(OUTPUT_FOLDER_NAME + "checkpoint"),
+					snapshots);
+			sampler.metrics().register("RandomStreamSampling");
+			MetricsReporter reporter = METRICS_EVERY > 0 ? new MetricsReporter(METRICS_EVERY) : null;
+			if (reporter != null)
+				reporter.add("RandomStreamSampling", sampler.metrics());
+			if (RESUME) {
+				long done = checkpoints.resume(sampler);
+				if (done >= 0)
+					fileName = (int) done + 1;
+			}
+			// the outputs of a file, written through the names as of its end
+			FilePipeline.FileHandler outputs = new FilePipeline.FileHandler() {
+				public void endOfFile(int fileName, NodeDictionary.Names names) throws IOException {
+					if (deltaWriter != null) {
+						deltaWriter.write(fileName, names);
+					} else if (binaryWriter != null) {
+						binaryWriter.write(sampler, names, fileName, new File(OUTPUT_FOLDER_NAME + fileName + ".snap"));
+					} else {
+						File file = new File(OUTPUT_FOLDER_NAME +"//" +  fileName);
+						// an existing snapshot is not overwritten
+						if (!file.exists())
+							snapshots.write(sampler, names, file);
+					}
+					if (CHECKPOINT_EVERY > 0 && fileName % CHECKPOINT_EVERY == 0)
+						checkpoints.write(sampler, names, fileName);
 				}
+			};
 
-				writer.flush();
-				writer.close();
+			if (PIPELINED) {
+				new FilePipeline(sampler).run(INPUT_FOLDER_NAME, fileName, lastfileName, outputs);
+			} else {
+				for(; fileName<=lastfileName; fileName++){ //#of files in the folder
+					sampler.readFolderForGivenFiles(fileName);
+					outputs.endOfFile(fileName, sampler.nodes().names());
 				}
-				
 			}
+			snapshots.close();
+				if (reporter != null)
+					reporter.close();
 				long endTimeinMilliSeconds = new Date().getTime();
 
 				System.out.println("Time to compute in MilliSeconds: "+(endTimeinMilliSeconds - startTimeinMilliSeconds));
@@ -74,97 +132,129 @@ public class RandomStreamSampling {
 	}
 
 
-	private static int getRandomNumber(int lower, int reservoir_size2) {
-		Random r = new Random();
-		return r.nextInt(reservoir_size2 - lower) + lower;
+	private int getRandomNumber(int lower, int reservoir_size2) {
+		return random.nextInt(reservoir_size2 - lower) + lower;
 	}
 
-	public static void readFolderForGivenFiles(int fileName) {
+	public void readFolderForGivenFiles(int fileName) {
 
 		File file = new File(INPUT_FOLDER_NAME + "//" + fileName);
 
-		BufferedReader br = null;
-
 		try {
 
-			String sCurrentLine;
-			String DELIMETER = ",";
-
 			System.out.println("Reading File:" + fileName
 					+ "    ..............");
 
-			br = new BufferedReader(new FileReader(file));
+			reader.read(file, this);
+			endOfTimestep(fileName);
 
-			while ((sCurrentLine = br.readLine()) != null) {
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 
-				// Ignores the First Line ,as it contains the column name
-				if (sCurrentLine.contains("SOURCE")) {
-					continue;
-				}
-				
-				String[] splitLine = sCurrentLine.split(DELIMETER);
+	}
 
-				String source = splitLine[0]
-						.trim();
-				String target = splitLine[1].trim();
+	public void edge(int source, int target, long time) {
+				long key = edgeMap.keyOf(source, target);
 
 				
-				if (index < reservoir_size) {
-					if(edgeMap.containsKey(source + "," + target))
-					{
-						int weight=edgeMap.get(source + "," + target);
-						edgeMap.put(source + "," +target, weight+1);
-					}
-					else if(edgeMap.containsKey(target + "," + source))
-					{
-						int weight=edgeMap.get(target + "," + source);
-						edgeMap.put(target + "," +source, weight+1);
-					}
-					else
+				if (index < reservoirSize) {
+					int id = edgeMap.upsert(key);
+					if (edgeMap.getCount(id) == 0)
 					{
-						edgeMap.put(source + "," + target,1);
-						indexMap.put(index,source + "," + target);
+						indexMap[index] = id;
 						index++;
+						metrics.sampleSize.increment();
 					} 
+					edgeMap.setCount(id, edgeMap.getCount(id)+1);
+					edgeMap.setLastSeen(id, stream_index);
 				}
 				else {
 					
-					int pos = getRandomNumber(0, reservoir_size);
-						if(edgeMap.containsKey(source + "," + target))
+					int pos = getRandomNumber(0, reservoirSize);
+						int id = edgeMap.find(key);
+						if (id < 0)
 						{
-							int weight=edgeMap.get(source + "," + target);
-							edgeMap.put(source + "," + target, weight+1);
-							
-						}
-						else if(edgeMap.containsKey(target + "," + source))
-						{
-							int weight=edgeMap.get(target + "," + source);
-							edgeMap.put(target + "," + source, weight+1);
-							
-						}
-						else
-						{
-							
-							String keyToRemove=indexMap.get(pos);
-							indexMap.put(pos, source + "," + target);
-							edgeMap.remove(keyToRemove);
-							edgeMap.put(source + "," + target, 1);
+							// the evicted edge leaves first, so the table never holds more than reservoirSize edges
+							edgeMap.remove(indexMap[pos]);
+							id = edgeMap.insert(key);
+							indexMap[pos] = id;
+							metrics.replacements.increment();
 						} 
+						edgeMap.setCount(id, edgeMap.getCount(id)+1);
+						edgeMap.setLastSeen(id, stream_index);
 				}
-				
-			}
+				stream_index++;
+				if ((stream_index & (SamplerMetrics.EDGE_COUNT_STEP - 1)) == 0)
+					countEdges();
+	}
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			try {
-				if (br != null)
-					br.close();
-			} catch (IOException ex) {
-				ex.printStackTrace();
-			}
+	private void countEdges() {
+		metrics.edges.add(stream_index - countedEdges);
+		countedEdges = stream_index;
+	}
+
+	// no timesteps to close, the reservoir is kept per edge
+	public void endOfTimestep(long timestep) {
+		countEdges();
+	}
+
+	public void forEachEdge(EdgeVisitor visitor) {
+		for (int id = 0; id < edgeMap.limit(); id++) {
+			if (!edgeMap.isLive(id))
+				continue;
+			long key = edgeMap.getKey(id);
+			visitor.edge(EdgeTable.source(key), EdgeTable.target(key), edgeMap.getCount(id), edgeMap.getCount(id));
 		}
+	}
+
+	public int size() {
+		return edgeMap.size();
+	}
+
+	public double weightOf(int id) {
+		return edgeMap.getCount(id);
+	}
+
+	// reservoir weights are counts, they never decay
+	public double takeDecay() {
+		return 1.0;
+	}
+
+	public NodeDictionary nodes() {
+		return nodes;
+	}
+
+	public EdgeTable edges() {
+		return edgeMap;
+	}
+
+	public SamplerMetrics metrics() {
+		return metrics;
+	}
+
+	public void writeState(DataOutput out) throws IOException {
+		out.writeInt(reservoirSize);
+		out.writeLong(stream_index);
+		out.writeInt(index);
+		for (int i = 0; i < index; i++)
+			out.writeInt(indexMap[i]);
+		out.writeLong(random.state());
+		edgeMap.writeTo(out);
+	}
 
+	public void readState(DataInput in) throws IOException {
+		if (in.readInt() != reservoirSize)
+			throw new IOException("Checkpoint was written by a RandomStreamSampling with other parameters");
+		stream_index = in.readLong();
+		metrics.sampleSize.add(-index);
+		index = in.readInt();
+		metrics.sampleSize.add(index);
+		for (int i = 0; i < index; i++)
+			indexMap[i] = in.readInt();
+		random.setState(in.readLong());
+		edgeMap.readFrom(in);
+		countedEdges = stream_index;
 	}
 
 }
@@ -7,65 +7,159 @@ Output: Sample snapshot.
 /*This is a multigraph variant for the Reservoir algorithm for unbounded data streams given by  Vitter, J.S.: Random sampling with a reservoir. 
 ACM Transactions on Mathematical Software (TOMS) 11(1), 37–57 (1985).
  */
+/* With SKIP_SAMPLING the random number per edge is replaced by the skip distances of Algorithm L given by Li, K.H.: Reservoir-sampling 
+ * algorithms of time complexity O(n(1 + log(N/n))). ACM Transactions on Mathematical Software (TOMS) 20(4), 481–493 (1994).
+ * The reservoir fills up with its k-th distinct edge, usually after more than k stream edges, and the first W is drawn for that
+ * position. The position of the next selected edge is drawn when the previous one is taken, with the same distribution as
+ * the per edge draw, so the edges in between are not even looked up. In both modes an edge in the reservoir gains weight only when its
+ * occurrence is selected, so both give the same sample and weights in distribution.
+ * A SEED makes the sample reproducible, both modes draw from one StreamRandom.
+ */
+/* With ADMISSION_COUNT an AdmissionFilter counts every stream edge, and an edge new to the reservoir only takes the
+ * slot it was selected for once it occurred that many times by the filter's estimate. Otherwise the slot keeps its
+ * edge, so one-off edges stop evicting long lived ones. The sample is then no longer uniform over the stream edges
+ * but leans to the repeated ones. The filter ages at the end of a file after ADMISSION_AGING_RESERVOIRS
+ * reservoirs of edges.
+ */
 
 package dynamic.sampling;
 
-import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
-import java.util.Map.Entry;
+import java.util.List;
 
-public class ReservoirSampling {
+public class ReservoirSampling implements Checkpointable {
 
-	private static int stream_index=0;
 	private static int reservoir_size = 1000;
 	private static int fileName=1;
 	private static int lastfileName=29;
-	private static int index=0;
+	// set to true to keep both directions of an edge apart
+	private static boolean DIRECTED = false;
+	// 0 writes the whole sample after every file, n writes deltas with a full checkpoint every n files
+	private static int DELTA_CHECKPOINT_EVERY = 0;
+	// gzip the snapshot files
+	private static boolean GZIP_OUTPUT = false;
+	// write binary .snap snapshots, read with BinarySnapshot, instead of csv
+	private static boolean BINARY_OUTPUT = false;
+	// save the sampler state every n files, 0 for never, RESUME continues after the last saved file
+	private static int CHECKPOINT_EVERY = 0;
+	private static boolean RESUME = false;
+	// seconds between metric lines on the console, 0 for none, the metrics are in JMX either way
+	private static int METRICS_EVERY = 0;
+	// parse the next file on a thread of its own while this one is sampled, see FilePipeline
+	private static boolean PIPELINED = false;
+	// draw skip distances (Algorithm L) instead of a random number per edge
+	private static boolean SKIP_SAMPLING = false;
+	// seed of the random generator, null for a different sample every run
+	private static Long SEED = null;
+	// occurrences an edge needs before it enters the reservoir, 0 for no admission filter, see AdmissionFilter
+	private static int ADMISSION_COUNT = 0;
+	private static double ADMISSION_EPSILON = 1e-5;
+	private static double ADMISSION_DELTA = 0.01;
+	// the admission filter ages after this many reservoirs of stream edges
+	public static final int ADMISSION_AGING_RESERVOIRS = 10;
 	
-	private static Map<Integer,String> indexMap=new HashMap<Integer,String>();;
-	private static Map<String,Integer> edgeMap=new HashMap<String,Integer>();;
+	// a slot of a merged reservoir that an edge drawn from two parts left unused, taken by the next replacement
+	private static final int EMPTY_SLOT = -1;
 	
 	public static final String INPUT_FOLDER_NAME = "/home/input/";
 	public static final String OUTPUT_FOLDER_NAME = "/home/output/";
+
+	private final NodeDictionary nodes;
+	private final MappedEdgeReader reader;
+	private final int reservoirSize;
+	private long stream_index=0;
+	private int index=0;
+	// reservoir slot -> entry id of the edge in edgeMap, or EMPTY_SLOT
+	private final int[] indexMap;
+	private final EdgeTable edgeMap;
+	private final StreamRandom random;
+	private final boolean skipSampling;
+	// Algorithm L state: stream position of the next selected edge and the running W, 0 until the reservoir is full
+	private long nextSelected = -1;
+	private double w = 0;
+	private final SamplerMetrics metrics = new SamplerMetrics();
+	private AdmissionFilter admission;
+	// stream position last added to the edge counter, which is added to every EDGE_COUNT_STEP edges
+	private long countedEdges = 0;
+
+	public ReservoirSampling(NodeDictionary nodes, int reservoirSize, boolean directed) {
+		this(nodes, reservoirSize, directed, false, new StreamRandom());
+	}
+
+	public ReservoirSampling(NodeDictionary nodes, int reservoirSize, boolean directed, boolean skipSampling,
+			StreamRandom random) {
+		this.nodes = nodes;
+		this.reader = new MappedEdgeReader(nodes);
+		this.reservoirSize = reservoirSize;
+		this.indexMap = new int[reservoirSize];
+		this.edgeMap = new EdgeTable(reservoirSize, directed);
+		this.skipSampling = skipSampling;
+		this.random = random;
+	}
+
 	public static void main(String[] args) {
 		
 		try {
 			
 			long startTimeinMilliSeconds = new Date().getTime();
-				for(; fileName<=lastfileName; fileName++){ //#of files in the folder
-
-					readFolderForGivenFiles(fileName);
-								
-				
-								
-				File file = new File(OUTPUT_FOLDER_NAME + fileName);
-
-				// if file doesnt exists, then creates it
-				if (!file.exists()) {
-					file.createNewFile();
-				
-
-				FileWriter writer = new FileWriter(file, true);
-
-				writer.append("SOURCE,TARGET");
-
-				writer.append("SOURCE,TARGET,WEIGHT");
-				for(Entry<String, Integer> og : edgeMap.entrySet()){
-					writer.append("\r\n"+og.getKey()+","+og.getValue());
+			final ReservoirSampling sampler = new ReservoirSampling(new NodeDictionary(), reservoir_size, DIRECTED,
+					SKIP_SAMPLING, StreamRandom.of(SEED));
+			final DeltaSnapshotWriter deltaWriter = DELTA_CHECKPOINT_EVERY > 0
+					? new DeltaSnapshotWriter(sampler, new File(OUTPUT_FOLDER_NAME), DELTA_CHECKPOINT_EVERY) : null;
+			// snapshots are written in the background while the next file is read
+			final SnapshotWriter snapshots = new SnapshotWriter(GZIP_OUTPUT, true);
+			final BinarySnapshotWriter binaryWriter = BINARY_OUTPUT ? new BinarySnapshotWriter(0, 0, reservoir_size) : null;
+			final CheckpointWriter checkpoints = new CheckpointWriter(new File(OUTPUT_FOLDER_NAME + "checkpoint"),
+					snapshots);
+			if (ADMISSION_COUNT > 0)
+				sampler.setAdmissionFilter(new AdmissionFilter(ADMISSION_COUNT, ADMISSION_EPSILON, ADMISSION_DELTA,
+						(long) ADMISSION_AGING_RESERVOIRS * reservoir_size));
+			sampler.metrics().register("ReservoirSampling");
+			MetricsReporter reporter = METRICS_EVERY > 0 ? new MetricsReporter(METRICS_EVERY) : null;
+			if (reporter != null)
+				reporter.add("ReservoirSampling", sampler.metrics());
+			if (RESUME) {
+				long done = checkpoints.resume(sampler);
+				if (done >= 0)
+					fileName = (int) done + 1;
+			}
+			// the outputs of a file, written through the names as of its end
+			FilePipeline.FileHandler outputs = new FilePipeline.FileHandler() {
+				public void endOfFile(int fileName, NodeDictionary.Names names) throws IOException {
+					if (sampler.admissionFilter() != null)
+						System.out.println(sampler.admissionFilter().report());
+					if (deltaWriter != null) {
+						deltaWriter.write(fileName, names);
+					} else if (binaryWriter != null) {
+						binaryWriter.write(sampler, names, fileName, new File(OUTPUT_FOLDER_NAME + fileName + ".snap"));
+					} else {
+						File file = new File(OUTPUT_FOLDER_NAME + fileName);
+						// an existing snapshot is not overwritten
+						if (!file.exists())
+							snapshots.write(sampler, names, file);
+					}
+					if (CHECKPOINT_EVERY > 0 && fileName % CHECKPOINT_EVERY == 0)
+						checkpoints.write(sampler, names, fileName);
 				}
+			};
 
-				writer.flush();
-				writer.close();
+			if (PIPELINED) {
+				new FilePipeline(sampler).run(INPUT_FOLDER_NAME, fileName, lastfileName, outputs);
+			} else {
+				for(; fileName<=lastfileName; fileName++){ //#of files in the folder
+					sampler.readFolderForGivenFiles(fileName);
+					outputs.endOfFile(fileName, sampler.nodes().names());
 				}
-					
-			}long endTimeinMilliSeconds = new Date().getTime();
+			}
+			snapshots.close();
+			if (reporter != null)
+				reporter.close();
+			long endTimeinMilliSeconds = new Date().getTime();
 
 			System.out.println("Time to compute in MilliSeconds: "+(endTimeinMilliSeconds - startTimeinMilliSeconds));
 				System.out.println("DONE !");
@@ -78,100 +172,322 @@ public class ReservoirSampling {
 	}
 
 
-	private static int getRandomNumber(int lower, int upper) {
-		Random r = new Random();
-		return r.nextInt(upper - lower) + lower;
+	private long getRandomNumber(long lower, long upper) {
+		return random.nextLong(upper - lower) + lower;
 	}
 
-	public static void readFolderForGivenFiles(int fileName) {
+	public void readFolderForGivenFiles(int fileName) {
 
 		File file = new File(INPUT_FOLDER_NAME + "//" + fileName);
 
-		BufferedReader br = null;
-
 		try {
 
-			String sCurrentLine;
-			String DELIMETER = ",";
-
 			System.out.println("Reading File:" + fileName
 					+ "    ..............");
 
-			br = new BufferedReader(new FileReader(file));
-
-			while ((sCurrentLine = br.readLine()) != null) {
+			reader.read(file, this);
+			endOfTimestep(fileName);
 
-				// Ignores the First Line ,as it contains the column name
-				if (sCurrentLine.contains("SOURCE")) {
-					continue;
-				}
-				
-				String[] splitLine = sCurrentLine.split(DELIMETER);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 
-				String source = splitLine[0]
-						.trim();
-				String target = splitLine[1].trim();
+	}
 
+	public void edge(int source, int target, long time) {
+				long key = edgeMap.keyOf(source, target);
+				// every edge is counted, whether a new one may enter is asked where a slot is offered to it
+				int estimate = admission == null ? 0 : admission.add(key);
 				
-				if (index < reservoir_size) {
-					if(edgeMap.containsKey(source + "," + target))
-					{
-						int weight=edgeMap.get(source + "," + target);
-						edgeMap.put(source + "," +target, weight+1);
-					}
-					else if(edgeMap.containsKey(target + "," + source))
-					{
-						int weight=edgeMap.get(target + "," + source);
-						edgeMap.put(target + "," +source, weight+1);
+				if (index < reservoirSize) {
+					int id = upsert(key, estimate);
+					if (id >= 0) {
+						if (edgeMap.getCount(id) == 0)
+						{
+							indexMap[index] = id;
+							index++;
+							metrics.sampleSize.increment();
+						} 
+						edgeMap.setCount(id, edgeMap.getCount(id)+1);
+						edgeMap.setLastSeen(id, stream_index);
 					}
-					else
-					{
-						edgeMap.put(source + "," + target,1);
-						indexMap.put(index,source + "," + target);
-						index++;
-					} 
+				}
+				else if (skipSampling) {
+					skipSample(key, estimate);
 				}
 				else {
 					
-					int pos = getRandomNumber(0, stream_index);
+					long pos = getRandomNumber(0, stream_index);
 
-					if (pos < reservoir_size) {
-						if(edgeMap.containsKey(source + "," + target))
-						{
-							int weight=edgeMap.get(source + "," + target);
-							edgeMap.put(source + "," + target, weight+1);
-							
+					if (pos < reservoirSize) {
+						int id = replace(key, estimate, (int) pos);
+						// a new edge kept out by the admission filter leaves the slot to its edge
+						if (id >= 0) {
+							edgeMap.setCount(id, edgeMap.getCount(id)+1);
+							edgeMap.setLastSeen(id, stream_index);
 						}
-						else if(edgeMap.containsKey(target + "," + source))
-						{
-							int weight=edgeMap.get(target + "," + source);
-							edgeMap.put(target + "," + source, weight+1);
-							
-						}
-						else
-						{
-							String keyToRemove=indexMap.get(pos);
-							indexMap.put(pos, source + "," + target);
-							edgeMap.remove(keyToRemove);
-							edgeMap.put(source + "," + target, 1);
-						} 
 					
 					}
 				}
 				stream_index++;
+				if ((stream_index & (SamplerMetrics.EDGE_COUNT_STEP - 1)) == 0)
+					countEdges();
+	}
+
+	private void countEdges() {
+		metrics.edges.add(stream_index - countedEdges);
+		countedEdges = stream_index;
+	}
+
+	// only the edge at nextSelected is handled, like an edge whose pos falls in the reservoir, the ones before it are not
+	private void skipSample(long key, int estimate) {
+		if (nextSelected < 0)
+			startSkipping();
+		if (stream_index < nextSelected)
+			return;
+		int id = edgeMap.find(key);
+		// a new edge kept out by the admission filter passes its turn
+		if (id < 0 && (admission == null || admission.decide(estimate)))
+			id = replace(key, random.nextInt(reservoirSize));
+		if (id >= 0) {
+			edgeMap.setCount(id, edgeMap.getCount(id) + 1);
+			edgeMap.setLastSeen(id, stream_index);
+		}
+		w *= Math.exp(Math.log(random.nextDouble()) / reservoirSize);
+		nextSelected = stream_index + 1 + skip();
+	}
+
+	// Algorithm L from the position the reservoir filled up at, past reservoirSize when edges repeated: W is the largest
+	// key of the k smallest of n uniform keys, their k-th order statistic, drawn as 1 - exp(-E) with E the k-th smallest
+	// of n exponentials, a sum of k independent exponentials over n, n - 1 .. n - k + 1 (Renyi)
+	private void startSkipping() {
+		double e = 0;
+		for (int j = 0; j < reservoirSize; j++)
+			e -= Math.log(1 - random.nextDouble()) / (stream_index - j);
+		w = -Math.expm1(-e);
+		nextSelected = stream_index + skip();
+	}
+
+	// the entry of the edge, inserted when it is new and admitted with the estimate counted for it, -1 when kept out
+	private int upsert(long key, int estimate) {
+		if (admission == null)
+			return edgeMap.upsert(key);
+		int id = edgeMap.find(key);
+		if (id < 0 && admission.decide(estimate))
+			id = edgeMap.insert(key);
+		return id;
+	}
+
+	// the entry of the edge when it is sampled already, else it takes slot pos if admitted, -1 when kept out
+	private int replace(long key, int estimate, int pos) {
+		int id = edgeMap.find(key);
+		if (id < 0 && (admission == null || admission.decide(estimate)))
+			id = replace(key, pos);
+		return id;
+	}
+
+	// the evicted edge leaves first, so the table never holds more than reservoirSize edges
+	private int replace(long key, int pos) {
+		if (indexMap[pos] == EMPTY_SLOT) {
+			metrics.sampleSize.increment();
+		} else {
+			edgeMap.remove(indexMap[pos]);
+			metrics.replacements.increment();
+		}
+		int id = edgeMap.insert(key);
+		indexMap[pos] = id;
+		return id;
+	}
+
+	// edges passed over before the next selected one, geometric with success probability w
+	private long skip() {
+		double u = random.nextDouble();
+		// nextDouble can return 0
+		if (u == 0)
+			return Long.MAX_VALUE / 2;
+		// w rounds to 1 for a reservoir of one edge
+		if (w >= 1)
+			return 0;
+		return (long) Math.floor(Math.log(u) / Math.log1p(-w));
+	}
+
+	/** Number of stream edges seen, the weight of this reservoir in a merge. */
+	public long seen() {
+		return stream_index;
+	}
+
+	/**
+	 * Combines reservoirs built independently over disjoint parts of a stream into a reservoir of the whole stream.
+	 * Every slot of the result is drawn from part i with probability (edges of part i not drawn yet) / (edges of all
+	 * parts not drawn yet), a sequential hypergeometric draw, and takes a uniformly chosen unused slot of that part,
+	 * so the result is distributed like a reservoir of the concatenated parts. An edge drawn again from another part
+	 * does not take a second slot, and the weight of a sampled edge is the sum of its counts in every part holding it.
+	 * The parts may have their own NodeDictionary, edges are carried over by node name. The result keeps sampling
+	 * from where the parts stopped. Once a part was full the whole stream filled a reservoir, so the result is full too:
+	 * the slots edges drawn twice left over stay empty and later edges only enter through the replacement draw, at rate
+	 * k / n, not all of them as while filling up. Skip sampling starts from the position after the parts.
+	 */
+	public static ReservoirSampling merge(List<ReservoirSampling> parts, NodeDictionary nodes, int reservoirSize,
+			boolean directed, boolean skipSampling, StreamRandom random) {
+		ReservoirSampling merged = new ReservoirSampling(nodes, reservoirSize, directed, skipSampling, random);
+		int n = parts.size();
+		long[] undrawn = new long[n];
+		int[][] slots = new int[n][];
+		int[] left = new int[n];
+		int[][] nodeMaps = new int[n][];
+		long total = 0;
+		boolean full = false;
+		for (int p = 0; p < n; p++) {
+			ReservoirSampling part = parts.get(p);
+			undrawn[p] = part.stream_index;
+			slots[p] = new int[part.index];
+			for (int i = 0; i < part.index; i++)
+				if (part.indexMap[i] != EMPTY_SLOT)
+					slots[p][left[p]++] = part.indexMap[i];
+			full |= part.index == part.reservoirSize;
+			nodeMaps[p] = new int[part.nodes.size()];
+			Arrays.fill(nodeMaps[p], -1);
+			total += part.stream_index;
+		}
+		merged.stream_index = total;
+
+		while (merged.index < reservoirSize) {
+			long available = 0;
+			for (int p = 0; p < n; p++)
+				if (left[p] > 0)
+					available += undrawn[p];
+			if (available == 0)
+				break;
+			long r = (long) (random.nextDouble() * available);
+			int p = 0;
+			while (left[p] == 0 || r >= undrawn[p]) {
+				if (left[p] > 0)
+					r -= undrawn[p];
+				p++;
 			}
+			undrawn[p]--;
+			int j = random.nextInt(left[p]);
+			int entry = slots[p][j];
+			slots[p][j] = slots[p][--left[p]];
+			long key = merged.carryKey(parts.get(p), nodeMaps[p], entry);
+			if (merged.edgeMap.find(key) >= 0)
+				continue;
+			merged.indexMap[merged.index++] = merged.edgeMap.insert(key);
+		}
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			try {
-				if (br != null)
-					br.close();
-			} catch (IOException ex) {
-				ex.printStackTrace();
+		for (int p = 0; p < n; p++) {
+			EdgeTable edges = parts.get(p).edgeMap;
+			for (int entry = 0; entry < edges.limit(); entry++) {
+				if (!edges.isLive(entry))
+					continue;
+				int id = merged.edgeMap.find(merged.carryKey(parts.get(p), nodeMaps[p], entry));
+				if (id >= 0)
+					merged.edgeMap.setCount(id, merged.edgeMap.getCount(id) + edges.getCount(entry));
 			}
 		}
+		while (full && merged.index < reservoirSize)
+			merged.indexMap[merged.index++] = EMPTY_SLOT;
+		if (skipSampling && merged.index == reservoirSize)
+			merged.startSkipping();
+		merged.metrics.sampleSize.add(merged.edgeMap.size());
+		merged.countedEdges = total;
+		return merged;
+	}
+
+	// the key in this reservoir of an entry of part, nodeMap caches the node ids of part in this reservoir
+	private long carryKey(ReservoirSampling part, int[] nodeMap, int entry) {
+		long key = part.edgeMap.getKey(entry);
+		return edgeMap.keyOf(carryNode(part, nodeMap, EdgeTable.source(key)),
+				carryNode(part, nodeMap, EdgeTable.target(key)));
+	}
+
+	private int carryNode(ReservoirSampling part, int[] nodeMap, int node) {
+		if (part.nodes == nodes)
+			return node;
+		if (nodeMap[node] < 0)
+			nodeMap[node] = nodes.intern(part.nodes.name(node));
+		return nodeMap[node];
+	}
+
+	// no timesteps to close, the reservoir is kept per edge
+	public void endOfTimestep(long timestep) {
+		countEdges();
+		if (admission != null)
+			admission.endOfTimestep();
+	}
+
+	/** Keeps edges new to the reservoir out until the filter admits them, set before the first edge. */
+	public void setAdmissionFilter(AdmissionFilter filter) {
+		this.admission = filter;
+	}
+
+	public AdmissionFilter admissionFilter() {
+		return admission;
+	}
+
+	public void forEachEdge(EdgeVisitor visitor) {
+		for (int id = 0; id < edgeMap.limit(); id++) {
+			if (!edgeMap.isLive(id))
+				continue;
+			long key = edgeMap.getKey(id);
+			visitor.edge(EdgeTable.source(key), EdgeTable.target(key), edgeMap.getCount(id), edgeMap.getCount(id));
+		}
+	}
+
+	public int size() {
+		return edgeMap.size();
+	}
+
+	public double weightOf(int id) {
+		return edgeMap.getCount(id);
+	}
+
+	// reservoir weights are counts, they never decay
+	public double takeDecay() {
+		return 1.0;
+	}
+
+	public NodeDictionary nodes() {
+		return nodes;
+	}
+
+	public EdgeTable edges() {
+		return edgeMap;
+	}
+
+	public SamplerMetrics metrics() {
+		return metrics;
+	}
+
+	public void writeState(DataOutput out) throws IOException {
+		out.writeInt(reservoirSize);
+		out.writeBoolean(skipSampling);
+		out.writeLong(stream_index);
+		out.writeInt(index);
+		for (int i = 0; i < index; i++)
+			out.writeInt(indexMap[i]);
+		out.writeLong(nextSelected);
+		out.writeDouble(w);
+		out.writeLong(random.state());
+		edgeMap.writeTo(out);
+		AdmissionFilter.writeTo(out, admission);
+	}
 
+	public void readState(DataInput in) throws IOException {
+		if (in.readInt() != reservoirSize || in.readBoolean() != skipSampling)
+			throw new IOException("Checkpoint was written by a ReservoirSampling with other parameters");
+		stream_index = in.readLong();
+		index = in.readInt();
+		for (int i = 0; i < index; i++)
+			indexMap[i] = in.readInt();
+		nextSelected = in.readLong();
+		w = in.readDouble();
+		random.setState(in.readLong());
+		int before = edgeMap.size();
+		edgeMap.readFrom(in);
+		metrics.sampleSize.add(edgeMap.size() - before);
+		AdmissionFilter.readFrom(in, admission);
+		countedEdges = stream_index;
 	}
 
 }
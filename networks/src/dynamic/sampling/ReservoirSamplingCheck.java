@@ -0,0 +1,213 @@
+/* Statistical checks of ReservoirSampling on a stream with repeated edges, where the reservoir fills up with its k-th
+ * distinct edge long after k stream edges. A stream of distinct edges cannot tell the modes apart there.
+ * skip: the skip sampling of Algorithm L against the per edge draw, over many seeds. Both modes must replace about as
+ * often and hold the edges of every popularity decile about as often.
+ * merge: reservoirs of four parts of the first half merged and fed the second half, against one reservoir over the
+ * whole stream, in both modes. The parts share most of their edges, so the merge draws many edges twice, and the
+ * merged reservoir must still take later edges at rate k / n: the replacements of the second half and the inclusion
+ * frequencies must match those of the single reservoir. An edge held by several parts takes one slot of the merge,
+ * which leaves the most popular edges a few percent rarer than in the single reservoir, so inclusion frequencies may
+ * also differ by 5% of their value there.
+ * admit: edges never seen before, fed right after a merge of the whole stream and after a merge of two such merges,
+ * must enter at rate k / n each, as the per edge draw takes them, not all of them as while filling up.
+ * A check prints its numbers and FAILED when a difference is past its tolerance, the exit status is then 1.
+ *
+ * Usage: ReservoirSamplingCheck [-edges 200000] [-distinct 5000] [-reservoir 500] [-runs 100] [-seed 1]
+ */
+package dynamic.sampling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class ReservoirSamplingCheck {
+	private static int EDGES = 200000;
+	private static int DISTINCT = 5000;
+	private static int RESERVOIR = 500;
+	private static int RUNS = 100;
+	private static long SEED = 1;
+	// popularity deciles the inclusion frequencies are compared by
+	private static final int GROUPS = 10;
+
+	private static boolean failed = false;
+
+	public static void main(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-edges"))
+				EDGES = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-distinct"))
+				DISTINCT = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-reservoir"))
+				RESERVOIR = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-runs"))
+				RUNS = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-seed"))
+				SEED = Long.parseLong(args[i + 1]);
+			else
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+		}
+		int[] stream = stream(EDGES, DISTINCT, new StreamRandom(SEED));
+		checkSkip(stream);
+		checkMerge(stream, false);
+		checkMerge(stream, true);
+		checkAdmit(stream, false);
+		checkAdmit(stream, true);
+		if (failed)
+			System.exit(1);
+	}
+
+	// edge i of the pool is source i, target DISTINCT + i, drawn with probability falling steeply with i
+	static int[] stream(int edges, int distinct, StreamRandom random) {
+		int[] stream = new int[edges];
+		for (int i = 0; i < edges; i++) {
+			double u = random.nextDouble();
+			stream[i] = (int) (distinct * u * u * u);
+		}
+		return stream;
+	}
+
+	private static void checkSkip(int[] stream) {
+		Runs perEdge = new Runs();
+		Runs skip = new Runs();
+		for (int run = 0; run < RUNS; run++) {
+			perEdge.add(feed(new ReservoirSampling(new NodeDictionary(), RESERVOIR, true, false,
+					new StreamRandom(SEED + 1 + run)), stream, 0, stream.length), 0);
+			skip.add(feed(new ReservoirSampling(new NodeDictionary(), RESERVOIR, true, true,
+					new StreamRandom(SEED + 1 + RUNS + run)), stream, 0, stream.length), 0);
+		}
+		compare("skip", "per edge", perEdge, "skip", skip, 0);
+	}
+
+	private static void checkMerge(int[] stream, boolean skipSampling) {
+		int half = stream.length / 2;
+		int parts = 4;
+		Runs single = new Runs();
+		Runs merged = new Runs();
+		for (int run = 0; run < RUNS; run++) {
+			StreamRandom random = new StreamRandom(SEED + 1 + run);
+			ReservoirSampling one = feed(new ReservoirSampling(new NodeDictionary(), RESERVOIR, true, skipSampling,
+					random.split()), stream, 0, half);
+			long before = one.metrics().getReplacements();
+			single.add(feed(one, stream, half, stream.length), before);
+			// the parts and the result share one dictionary, the node ids of the stream are not interned
+			NodeDictionary nodes = new NodeDictionary();
+			List<ReservoirSampling> reservoirs = new ArrayList<ReservoirSampling>();
+			for (int p = 0; p < parts; p++)
+				reservoirs.add(feed(new ReservoirSampling(nodes, RESERVOIR, true, skipSampling, random.split()), stream,
+						half * p / parts, half * (p + 1) / parts));
+			ReservoirSampling result = ReservoirSampling.merge(reservoirs, nodes, RESERVOIR, true, skipSampling,
+					random.split());
+			merged.add(feed(result, stream, half, stream.length), 0);
+		}
+		String check = skipSampling ? "merge skip" : "merge";
+		compare(check, "single", single, "merged", merged, 0.05);
+	}
+
+	private static void checkAdmit(int[] stream, boolean skipSampling) {
+		int fresh = 2000;
+		double expected = 0;
+		for (int i = 0; i < fresh; i++)
+			expected += (double) RESERVOIR / (stream.length + i);
+		long admitted = 0;
+		long nestedAdmitted = 0;
+		for (int run = 0; run < RUNS; run++) {
+			StreamRandom random = new StreamRandom(SEED + 1 + run);
+			NodeDictionary nodes = new NodeDictionary();
+			List<ReservoirSampling> halves = new ArrayList<ReservoirSampling>();
+			for (int h = 0; h < 2; h++) {
+				List<ReservoirSampling> parts = new ArrayList<ReservoirSampling>();
+				for (int p = 0; p < 2; p++) {
+					int q = 2 * h + p;
+					parts.add(feed(new ReservoirSampling(nodes, RESERVOIR, true, skipSampling, random.split()), stream,
+							stream.length * q / 4, stream.length * (q + 1) / 4));
+				}
+				halves.add(ReservoirSampling.merge(parts, nodes, RESERVOIR, true, skipSampling, random.split()));
+			}
+			ReservoirSampling nested = ReservoirSampling.merge(halves, nodes, RESERVOIR, true, skipSampling,
+					random.split());
+			nestedAdmitted += admitted(nested, fresh);
+			List<ReservoirSampling> parts = new ArrayList<ReservoirSampling>();
+			for (int p = 0; p < 4; p++)
+				parts.add(feed(new ReservoirSampling(nodes, RESERVOIR, true, skipSampling, random.split()), stream,
+						stream.length * p / 4, stream.length * (p + 1) / 4));
+			admitted += admitted(ReservoirSampling.merge(parts, nodes, RESERVOIR, true, skipSampling, random.split()),
+					fresh);
+		}
+		String check = skipSampling ? "admit skip" : "admit";
+		// the admissions of a run are nearly Poisson
+		double error = Math.sqrt(expected / RUNS);
+		boolean ok = true;
+		for (int nested = 0; nested < 2; nested++) {
+			double mean = (double) (nested == 0 ? admitted : nestedAdmitted) / RUNS;
+			boolean close = Math.abs(mean - expected) <= 5 * error;
+			ok &= close;
+			System.out.println(String.format(Locale.ROOT, "%s: new edges admitted per run after %s %.2f, expected %.2f%s",
+					check, nested == 0 ? "a merge" : "a merge of merges", mean, expected, close ? "" : " differs"));
+		}
+		System.out.println(check + (ok ? ": ok" : ": FAILED"));
+		failed |= !ok;
+	}
+
+	// how many of count edges new to the stream the reservoir takes in, fed one after another
+	private static long admitted(ReservoirSampling sampler, int count) {
+		long before = sampler.metrics().getReplacements() + sampler.metrics().getSampleSize();
+		for (int i = 0; i < count; i++)
+			sampler.edge(2 * DISTINCT + i, 2 * DISTINCT + count + i, i);
+		return sampler.metrics().getReplacements() + sampler.metrics().getSampleSize() - before;
+	}
+
+	static ReservoirSampling feed(ReservoirSampling sampler, int[] stream, int from, int to) {
+		for (int i = from; i < to; i++)
+			sampler.edge(stream[i], DISTINCT + stream[i], i);
+		return sampler;
+	}
+
+	// the replacements and the inclusion frequency per popularity decile of one mode over its runs
+	static class Runs {
+		private final long[] included = new long[GROUPS];
+		private long replacements = 0;
+		private int runs = 0;
+
+		// replacementsBefore were made before the part of the stream compared
+		void add(ReservoirSampling sampler, long replacementsBefore) {
+			sampler.forEachEdge(new EdgeVisitor() {
+				public void edge(int source, int target, double weight, int count) {
+					included[(int) ((long) source * GROUPS / DISTINCT)]++;
+				}
+			});
+			replacements += sampler.metrics().getReplacements() - replacementsBefore;
+			runs++;
+		}
+
+		double replacements() {
+			return (double) replacements / runs;
+		}
+
+		// share of the edges of the group held by a reservoir, averaged over the runs
+		double inclusion(int group) {
+			long from = ((long) group * DISTINCT + GROUPS - 1) / GROUPS;
+			long to = ((long) (group + 1) * DISTINCT + GROUPS - 1) / GROUPS;
+			return (double) included[group] / runs / (to - from);
+		}
+	}
+
+	// replacements within 5% of each other, inclusion frequencies within 5 standard errors of a binomial share or within
+	// the share relative of their value
+	static void compare(String check, String nameA, Runs a, String nameB, Runs b, double relative) {
+		boolean ok = Math.abs(a.replacements() - b.replacements()) <= 0.05 * Math.max(1, a.replacements());
+		System.out.println(String.format(Locale.ROOT, "%s: replacements per run %s %.1f, %s %.1f", check, nameA,
+				a.replacements(), nameB, b.replacements()));
+		for (int g = 0; g < GROUPS; g++) {
+			double pa = a.inclusion(g);
+			double pb = b.inclusion(g);
+			double edges = (double) DISTINCT / GROUPS;
+			double error = Math.sqrt(Math.max(pa * (1 - pa), 1e-4) * 2 / (a.runs * edges));
+			boolean close = Math.abs(pa - pb) <= Math.max(5 * error, relative * pa);
+			ok &= close;
+			System.out.println(String.format(Locale.ROOT, "%s: decile %d included %s %.4f, %s %.4f%s", check, g, nameA,
+					pa, nameB, pb, close ? "" : " differs"));
+		}
+		System.out.println(check + (ok ? ": ok" : ": FAILED"));
+		failed |= !ok;
+	}
+}
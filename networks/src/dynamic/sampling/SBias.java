@@ -10,60 +10,183 @@
  * THRESHOLD ranges between 0 and highest frequency of an edge in the network, when it is set to highest frequency all the network is forgotten. 
  * You can start experimenting from low value ranges between 0 and 1 for Threshold as well and increase to decrease the sample size.
 */
+/* With LAZY_DECAY the forgetting factor is not applied to every edge at a timestep change. A global scale 
+ * (ATT_FACTOR to the power of the number of timesteps seen) is kept instead and an edge stores its weight divided by it, 
+ * so the true weight is only computed when an edge is touched or written. Edges below THRESHOLD are taken from a 
+ * min-heap ordered by stored weight, so a timestep change costs the number of evicted edges and not the sample size.
+*/
+/* With MAX_EDGES (or MAX_BYTES) the sample never holds more edges than the budget, whatever THRESHOLD and the input are.
+ * When an edge would exceed it the lightest edges by decayed weight are evicted from the same min-heap, which can be the
+ * new edge itself when every sampled edge weighs more. Evictions over the budget are counted and printed per file.
+*/
+/* With ADMISSION_COUNT an AdmissionFilter keeps edges out of the sample until they occurred that many times by its
+ * estimate, so edges seen once are neither inserted nor pruned at the next timestep. The filter ages at timestep
+ * changes and a report of the inserts it saved is printed per file.
+*/
 /* Algorithm of SBias and datasets are described in Tabassum, S., & Gama, J. (2018, December). Biased Dynamic Sampling for Temporal Network Streams. 
  * In International Conference on Complex Networks and their Applications (pp. 512-523). Springer, Cham.
 */
 
 package dynamic.sampling;
 
-import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-
-public class SBias {
-	private static Map<String, EdgeDataWeight> edgeMap = new HashMap<String, EdgeDataWeight>();
-	private static String currentDate = null;
+
+public class SBias implements Checkpointable {
 	private static double ATT_FACTOR = 1.0;
 	private static double THRESHOLD = 0.0;
+	private static boolean LAZY_DECAY = true;
+	// calls are directed, set to false to merge both directions of an edge
+	private static boolean DIRECTED = true;
+	// granularity of a timestep, see TimestepBucketer for hours, months or custom widths
+	private static TimestepBucketer TIMESTEP = TimestepBucketer.DAY;
+	// 0 writes the whole sample after every file, n writes deltas with a full checkpoint every n files
+	private static int DELTA_CHECKPOINT_EVERY = 0;
+	// gzip the snapshot files
+	private static boolean GZIP_OUTPUT = false;
+	// hard limit on the sampled edges, 0 for none, or a limit in bytes turned into edges by BYTES_PER_EDGE
+	private static int MAX_EDGES = 0;
+	private static long MAX_BYTES = 0;
+	// write binary .snap snapshots, read with BinarySnapshot, instead of csv
+	private static boolean BINARY_OUTPUT = false;
+	// save the sampler state every n files, 0 for never, RESUME continues after the last saved file
+	private static int CHECKPOINT_EVERY = 0;
+	private static boolean RESUME = false;
+	// seconds between metric lines on the console, 0 for none, the metrics are in JMX either way
+	private static int METRICS_EVERY = 0;
+	// parse the next file on a thread of its own while this one is sampled, see FilePipeline
+	private static boolean PIPELINED = false;
+	// keep the sample in memory-mapped files of this folder instead of the heap, null for the heap, see MappedEdgeColumns
+	private static String SPILL_FOLDER = null;
+	// occurrences an edge needs before it enters the sample, 0 for no admission filter, see AdmissionFilter
+	private static int ADMISSION_COUNT = 0;
+	private static double ADMISSION_EPSILON = 1e-5;
+	private static double ADMISSION_DELTA = 0.01;
+	// occurrences counted by the filter before it ages at the next timestep change
+	private static long ADMISSION_PERIOD = 1 << 22;
 	private static int start_file_num = 1;
     private static int last_file_num = 100;
+	// stored weights are renormalised before the global scale underflows
+	private static final double MIN_SCALE = 1e-150;
+	// an edge in the table columns, its probe slots and the heap
+	static final int BYTES_PER_EDGE = 64;
+
+	private final NodeDictionary nodes;
+	private final MappedEdgeReader reader;
+	private final EdgeTable edgeMap;
+	private final EdgeWeightHeap weightOrder;
+	private final double attFactor;
+	private final double threshold;
+	private final boolean lazyDecay;
+	private final TimestepBucketer bucketer;
+	private final int maxEdges;
+	private long budgetEvictions = 0;
+	private final SamplerMetrics metrics;
+	private AdmissionFilter admission;
+	private boolean started = false;
+	private long currentDate;
+	// number of timestep changes seen, stored as the last seen time of an edge
+	private long timestep = 0;
+	private double scale = 1.0;
+	private double decay = 1.0;
+
+	public SBias(NodeDictionary nodes, double attFactor, double threshold, boolean lazyDecay, boolean directed,
+			TimestepBucketer bucketer) {
+		this(nodes, attFactor, threshold, lazyDecay, directed, bucketer, 0);
+	}
+
+	/** A sampler holding at most maxEdges edges, 0 for no limit. */
+	public SBias(NodeDictionary nodes, double attFactor, double threshold, boolean lazyDecay, boolean directed,
+			TimestepBucketer bucketer, int maxEdges) {
+		this(nodes, attFactor, threshold, lazyDecay, directed, bucketer, maxEdges, null);
+	}
+
+	/** Same with the edges kept in memory-mapped files of spillFolder instead of the heap, unless it is null. */
+	public SBias(NodeDictionary nodes, double attFactor, double threshold, boolean lazyDecay, boolean directed,
+			TimestepBucketer bucketer, int maxEdges, File spillFolder) {
+		this(nodes, attFactor, threshold, lazyDecay, directed, bucketer, maxEdges, spillFolder, new SamplerMetrics());
+	}
+
+	/** A sampler counting into the given metrics, the shards of a ShardedSBias share one. */
+	SBias(NodeDictionary nodes, double attFactor, double threshold, boolean lazyDecay, boolean directed,
+			TimestepBucketer bucketer, int maxEdges, File spillFolder, SamplerMetrics metrics) {
+		if (maxEdges < 0)
+			throw new IllegalArgumentException("Edge budget must not be negative: " + maxEdges);
+		this.nodes = nodes;
+		this.reader = new MappedEdgeReader(nodes);
+		// a full table holds one edge over the budget until it is evicted, so it never grows
+		this.edgeMap = new EdgeTable(maxEdges > 0 ? maxEdges + 1 : 1024, directed, spillFolder);
+		this.maxEdges = maxEdges;
+		this.weightOrder = new EdgeWeightHeap(edgeMap);
+		this.attFactor = attFactor;
+		this.threshold = threshold;
+		this.lazyDecay = lazyDecay;
+		this.bucketer = bucketer;
+		this.metrics = metrics;
+	}
 
 	public static void main(String[] args) {
 		try {
 				long startTimeinMilliSeconds = new Date().getTime();
-			
-				for(int fileName=start_file_num; fileName<=last_file_num; fileName++){ 
-								
-				readPhoneCallsFolderForGivenFiles("/folder/path",fileName);			
-				
-				File file = new File("/result/folder/path/"+fileName);
-				
-				
-				// if file doesnt exists, then creates it
-				if (!file.exists()) {
-					file.createNewFile();
+				final int maxEdges = MAX_EDGES > 0 ? MAX_EDGES
+						: (int) Math.min(Integer.MAX_VALUE - 1, MAX_BYTES / BYTES_PER_EDGE);
+				final SBias sampler = new SBias(new NodeDictionary(), ATT_FACTOR, THRESHOLD, LAZY_DECAY, DIRECTED, TIMESTEP,
+						maxEdges, SPILL_FOLDER == null ? null : new File(SPILL_FOLDER));
+				final DeltaSnapshotWriter deltaWriter = DELTA_CHECKPOINT_EVERY > 0
+						? new DeltaSnapshotWriter(sampler, new File("/result/folder/path/"), DELTA_CHECKPOINT_EVERY) : null;
+				// snapshots are written in the background while the next file is read
+				final SnapshotWriter snapshots = new SnapshotWriter(GZIP_OUTPUT, true);
+				final BinarySnapshotWriter binaryWriter = BINARY_OUTPUT
+						? new BinarySnapshotWriter(ATT_FACTOR, THRESHOLD, 0) : null;
+				final CheckpointWriter checkpoints = new CheckpointWriter(new File("/result/folder/path/checkpoint"),
+						snapshots);
+				if (ADMISSION_COUNT > 0)
+					sampler.setAdmissionFilter(new AdmissionFilter(ADMISSION_COUNT, ADMISSION_EPSILON, ADMISSION_DELTA,
+							ADMISSION_PERIOD));
+				sampler.metrics().register("SBias");
+				MetricsReporter reporter = METRICS_EVERY > 0 ? new MetricsReporter(METRICS_EVERY) : null;
+				if (reporter != null)
+					reporter.add("SBias", sampler.metrics());
+				int first = start_file_num;
+				if (RESUME) {
+					long done = checkpoints.resume(sampler);
+					if (done >= 0)
+						first = (int) done + 1;
 				}
-
-				FileWriter writer = new FileWriter(file, true);
-
-				writer.append("SOURCE,TARGET,WEIGHT");
-				for(Entry<String, EdgeDataWeight> og : edgeMap.entrySet()){
-					writer.append("\r\n"+og.getKey()+","+og.getValue().getWeight());
+				// the outputs of a file, written through the names as of its end
+				FilePipeline.FileHandler outputs = new FilePipeline.FileHandler() {
+					public void endOfFile(int fileName, NodeDictionary.Names names) throws IOException {
+						if (maxEdges > 0)
+							System.out.println("Edges evicted over the budget : " + sampler.budgetEvictions());
+						if (sampler.admissionFilter() != null)
+							System.out.println(sampler.admissionFilter().report());
+						if (deltaWriter != null) {
+							deltaWriter.write(fileName, names);
+						} else if (binaryWriter != null) {
+							binaryWriter.write(sampler, names, fileName,
+									new File("/result/folder/path/" + fileName + ".snap"));
+						} else {
+							snapshots.write(sampler, names, new File("/result/folder/path/"+fileName));
+						}
+						if (CHECKPOINT_EVERY > 0 && fileName % CHECKPOINT_EVERY == 0)
+							checkpoints.write(sampler, names, fileName);
+					}
+				};
+			
+				if (PIPELINED) {
+					new FilePipeline(sampler).run("/folder/path", first, last_file_num, outputs);
+				} else {
+					for(int fileName=first; fileName<=last_file_num; fileName++){
+						sampler.readPhoneCallsFolderForGivenFiles("/folder/path",fileName);
+						outputs.endOfFile(fileName, sampler.nodes().names());
+					}
 				}
-
-				writer.flush();
-				writer.close();
-			}
+				snapshots.close();
+				if (reporter != null)
+					reporter.close();
 				long endTimeinMilliSeconds = new Date().getTime();
 
 				System.out.println("Time to compute in MilliSeconds: "
@@ -74,135 +197,208 @@ public class SBias {
 		}
 	}
 
-	public static void readPhoneCallsFolderForGivenFiles(String folderName,
+	public void readPhoneCallsFolderForGivenFiles(String folderName,
 			Integer fileName) {
 		File file = new File(folderName + "//" + fileName);
-		BufferedReader br = null;
 		try {
+			System.out.println("Reading File : " + fileName	+ "    ..............");
+			reader.read(file, this);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 
-			String sCurrentLine;
-			String DELIMETER = ",";
+	public void edge(int source, int target, long time) {
+		long date = bucketer.bucket(time);
+		long key = edgeMap.keyOf(source, target);
+		
+		// check for new time stamp to forget old data
+		//forgets as soon as enters new time step
+		if (started && date != currentDate) {
+			metrics.timesteps.increment();
+			nextTimestep();
+		}
+		add(key);
+		
+		currentDate=date;
+		started = true;
+	}
 
-			System.out.println("Reading File : " + fileName	+ "    ..............");
-			br = new BufferedReader(new FileReader(file));
-			while ((sCurrentLine = br.readLine()) != null) {
-				// Ignores the First Line ,as it contains the column name
-				if (sCurrentLine.contains("SOURCE")) {
-					continue;
-				}
+	/** Applies the forgetting factor and threshold of a timestep change, ShardedSBias calls it on every shard. */
+	void nextTimestep() {
+		long start = System.nanoTime();
+		int before = edgeMap.size();
+		timestep++;
+		decay *= attFactor;
+		if (admission != null)
+			admission.endOfTimestep();
+		if (isLazy())
+			decayLazily();
+		else
+			decayEagerly();
+		metrics.evictions.add(before - edgeMap.size());
+		metrics.sampleSize.add(edgeMap.size() - before);
+		metrics.decay.record(System.nanoTime() - start);
+	}
 
-				String[] splitLine = sCurrentLine.split(DELIMETER);
-
-				String date = getDate(splitLine[2].trim());
-				String source = splitLine[0].trim();
-				String target = splitLine[1].trim();
-
-				String key = source + "," + target;
-				
-				// check for new time stamp to forget old data
-				//forgets as soon as enters new time step
-				if (currentDate != null && !date.equals(currentDate)) {
-					Set<String>  toRmoveSet =  new HashSet<String>();
-					
-					for (Entry<String, EdgeDataWeight> og : edgeMap.entrySet()) {
-						EdgeDataWeight cdw = og.getValue();
-						cdw.setWeight(cdw.getWeight() * ATT_FACTOR);
-						
-						/*remove the edges less than threshold from previous time step, 
-						to remove the edges less than threshold including current time step
-						 use the below condition and for loop in the end of this function*/
-						if(cdw.getWeight()<THRESHOLD){
-							toRmoveSet.add(og.getKey());
-							
-						}
-					}
-					
-					for(String r : toRmoveSet)
-					    edgeMap.remove(r);
-				}
+	/** Counts one occurrence of the edge in the current timestep. */
+	void add(long key) {
+		// one unit of the current timestep is 1/scale in stored weight
+		int id = admission == null ? edgeMap.upsert(key) : edgeMap.find(key);
+		if (id < 0) {
+			if (!admission.admit(key)) {
+				metrics.edges.increment();
+				return;
+			}
+			id = edgeMap.insert(key);
+		}
+		boolean added = edgeMap.getCount(id) == 0;
+		edgeMap.setCount(id, edgeMap.getCount(id) + 1);
+		edgeMap.setWeight(id, edgeMap.getWeight(id) + 1.0 / scale);
+		edgeMap.setLastSeen(id, timestep);
+		metrics.edges.increment();
+		if (added)
+			metrics.sampleSize.increment();
+		if (hasHeap()) {
+			if (added)
+				weightOrder.add(id);
+			else
+				weightOrder.increased(id);
+		}
+		if (maxEdges > 0 && edgeMap.size() > maxEdges) {
+			edgeMap.remove(weightOrder.poll());
+			budgetEvictions++;
+			metrics.evictions.increment();
+			metrics.sampleSize.decrement();
+		}
+	}
 
-				if (edgeMap.containsKey(key)) {
-					EdgeDataWeight cdw = edgeMap.get(key);
-					cdw.setNum(cdw.getNum() + 1);
-					cdw.setWeight(cdw.getWeight() + 1.0);
-					
-				} else {
-					EdgeDataWeight cdw = new EdgeDataWeight();
+	/** Keeps edges new to the sample out until the filter admits them, set before the first edge. */
+	public void setAdmissionFilter(AdmissionFilter filter) {
+		this.admission = filter;
+	}
 
-					cdw.setNum(1);
-					cdw.setWeight(1.0);
-					edgeMap.put(key, cdw);
-				}
+	public AdmissionFilter admissionFilter() {
+		return admission;
+	}
 
-				//System.out.println();
-				
-				/*for(Entry<String, CallDataWeight> og : edgeMap.entrySet()){
-					System.out.println(og.getKey()+"|"+og.getValue().getWeight());
-				}
-				System.out.println("---------------------");*/
-				
-				currentDate=date;
+	/** Number of edges evicted to stay within the edge budget so far. */
+	public long budgetEvictions() {
+		return budgetEvictions;
+	}
 
+	// the heap orders stored weights, which keep the order of the real ones under both decays
+	private boolean hasHeap() {
+		return isLazy() || maxEdges > 0;
+	}
 
-			}
+	// ATT_FACTOR of 0 forgets everything at once, which a multiplicative scale cannot express
+	private boolean isLazy() {
+		return lazyDecay && attFactor > 0.0;
+	}
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			try {
-				if (br != null)
-					br.close();
-			} catch (IOException ex) {
-				ex.printStackTrace();
-			}
+	public double weightOf(int id) {
+		return edgeMap.getWeight(id) * scale;
+	}
+
+	private void decayEagerly() {
+		/*remove the edges less than threshold from previous time step, 
+		to remove the edges less than threshold including current time step
+		 use the below condition and for loop in the end of this function*/
+		if (hasHeap()) {
+			// uniform rescaling keeps the heap order, the edges below threshold are its head
+			edgeMap.scaleWeights(attFactor);
+			while (!weightOrder.isEmpty() && weightOf(weightOrder.peek()) < threshold)
+				edgeMap.remove(weightOrder.poll());
+			return;
 		}
+		edgeMap.decay(attFactor, threshold, false);
+		// nothing holds entry ids without a heap
+		if (edgeMap.limit() > 2 * edgeMap.size())
+			edgeMap.compact();
 	}
-	static SimpleDateFormat format1 = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-	
-	static SimpleDateFormat format = new SimpleDateFormat("ddMMyyyy");
-
-	private static String getDate(String date) {
-		if (date != null)
-			try {
-				return format.format(format1.parse(date));
-			} catch (ParseException e) {
-				e.printStackTrace();
-				return null;
-			}
-		else
-			return null;
+
+	private void decayLazily() {
+		scale *= attFactor;
+		if (scale < MIN_SCALE) {
+			// uniform rescaling keeps the heap order
+			edgeMap.scaleWeights(scale);
+			scale = 1.0;
+		}
+		// same condition as the eager pass, evaluated only on the lightest edges
+		while (!weightOrder.isEmpty() && weightOf(weightOrder.peek()) < threshold) {
+			edgeMap.remove(weightOrder.poll());
+		}
 	}
 
-	
+	// no timesteps to close, SBias decays on the timestamps of its edges
+	public void endOfTimestep(long timestep) {
+	}
 
-}
+	public void forEachEdge(EdgeVisitor visitor) {
+		for (int id = 0; id < edgeMap.limit(); id++) {
+			if (!edgeMap.isLive(id))
+				continue;
+			long key = edgeMap.getKey(id);
+			visitor.edge(EdgeTable.source(key), EdgeTable.target(key), weightOf(id), edgeMap.getCount(id));
+		}
+	}
 
-class EdgeDataWeight {
-	private String date;
-	private int num;
-	private double weight;
+	public int size() {
+		return edgeMap.size();
+	}
 
-	public String getDate() {
-		return date;
+	public double takeDecay() {
+		double d = decay;
+		decay = 1.0;
+		return d;
 	}
 
-	public void setDate(String date) {
-		this.date = date;
+	public NodeDictionary nodes() {
+		return nodes;
 	}
 
-	public double getWeight() {
-		return weight;
+	public EdgeTable edges() {
+		return edgeMap;
 	}
 
-	public void setWeight(double weight) {
-		this.weight = weight;
+	public SamplerMetrics metrics() {
+		return metrics;
 	}
 
-	public int getNum() {
-		return num;
+	public void writeState(DataOutput out) throws IOException {
+		out.writeDouble(attFactor);
+		out.writeDouble(threshold);
+		out.writeBoolean(lazyDecay);
+		out.writeInt(maxEdges);
+		out.writeBoolean(started);
+		out.writeLong(currentDate);
+		out.writeLong(timestep);
+		out.writeDouble(scale);
+		out.writeDouble(decay);
+		out.writeLong(budgetEvictions);
+		edgeMap.writeTo(out);
+		if (hasHeap())
+			weightOrder.writeTo(out);
+		AdmissionFilter.writeTo(out, admission);
 	}
 
-	public void setNum(int num) {
-		this.num = num;
+	public void readState(DataInput in) throws IOException {
+		if (in.readDouble() != attFactor || in.readDouble() != threshold || in.readBoolean() != lazyDecay
+				|| in.readInt() != maxEdges)
+			throw new IOException("Checkpoint was written by an SBias with other parameters");
+		started = in.readBoolean();
+		currentDate = in.readLong();
+		timestep = in.readLong();
+		scale = in.readDouble();
+		decay = in.readDouble();
+		budgetEvictions = in.readLong();
+		int before = edgeMap.size();
+		edgeMap.readFrom(in);
+		metrics.sampleSize.add(edgeMap.size() - before);
+		if (hasHeap())
+			weightOrder.readFrom(in);
+		AdmissionFilter.readFrom(in, admission);
 	}
+
 }
@@ -0,0 +1,406 @@
+/* Live queries over the sample of a running sampler: the heaviest edges, and the degree, weighted degree and edges of
+ * a node, answered from any thread while the sampler keeps ingesting.
+ * The index is kept by the ingesting thread: update reads the entries the sampler set and the keys it removed since
+ * the last update (EdgeTable change tracking), and the decay it applied to the whole sample (takeDecay), so an update
+ * costs the number of changed edges, not the sample size. Weights are stored divided by the decay since the index was
+ * built, so a decay of the whole sample is one multiplication for the readers.
+ * The index holds one list of incident edges per node and a min-heap of the heavyHitters heaviest edges. Edges only
+ * gain weight between two decays or leave the sample, so an edge outside the heap never outweighs the heaviest one
+ * pushed out of it (bound), and the heap members weighing at least bound are the exact top of the sample. When removals
+ * leave less than half the heap above bound it is refilled from all edges.
+ * Every update publishes an immutable View through a volatile field. Nodes are kept in chunks of 1024, an update copies
+ * the chunks holding a node whose edges changed and shares the others with the previous view, so readers never wait
+ * for ingestion and ingestion never waits for readers.
+ * The index owns the change tracking and the decay of the sampler, it cannot be combined with a DeltaSnapshotWriter.
+ */
+package dynamic.sampling;
+
+import java.util.Arrays;
+
+public class SampleIndex {
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK = 1 << CHUNK_BITS;
+	// a cumulative decay below this is folded into the weights by rebuilding the index
+	private static final double MIN_DECAY = 1e-150;
+
+	private final EdgeSampler sampler;
+	private final int heavyHitters;
+	// the indexed edges under the keys of the sampler, weights divided by decay
+	private final EdgeTable indexed = new EdgeTable(1024, true);
+	private final EdgeWeightHeap top = new EdgeWeightHeap(indexed);
+	// highest weight of an edge outside the heap
+	private double bound = 0;
+	private boolean topChanged = true;
+	private double decay = 1.0;
+	// entry ids of indexed edges per node, and the position of an edge in the lists of its source and target
+	private int[][] incident = new int[0][];
+	private int[] incidentSize = new int[0];
+	private int[] atSource = new int[1024];
+	private int[] atTarget = new int[1024];
+	// one bit per node whose list changed since the last publish
+	private long[] dirty = new long[0];
+	private boolean rebuilt;
+	private long version = 0;
+	private volatile View view;
+
+	public SampleIndex(EdgeSampler sampler, int heavyHitters) {
+		if (heavyHitters <= 0)
+			throw new IllegalArgumentException("Heavy hitter count must be positive: " + heavyHitters);
+		if (sampler.edges().isTrackingChanges())
+			throw new IllegalStateException("The changes of this sampler are already read by a delta writer or index");
+		this.sampler = sampler;
+		this.heavyHitters = heavyHitters;
+		Arrays.fill(atSource, -1);
+		sampler.edges().trackChanges();
+		rebuild();
+		publish();
+	}
+
+	/** The sample as of the last update, safe to call from any thread. */
+	public View view() {
+		return view;
+	}
+
+	/** Applies the changes of the sample since the last update and publishes them. Call from the ingesting thread. */
+	public void update() {
+		EdgeTable edges = sampler.edges();
+		decay *= sampler.takeDecay();
+		if (decay < MIN_DECAY) {
+			rebuild();
+		} else {
+			for (int i = 0; i < edges.removedCount(); i++) {
+				int id = indexed.find(edges.getRemovedKey(i));
+				if (id >= 0)
+					remove(id);
+			}
+			for (int e = edges.nextChanged(0); e >= 0; e = edges.nextChanged(e + 1))
+				set(edges.getKey(e), sampler.weightOf(e) / decay, edges.getCount(e));
+			edges.clearChanges();
+		}
+		publish();
+	}
+
+	private void rebuild() {
+		EdgeTable edges = sampler.edges();
+		sampler.takeDecay();
+		decay = 1.0;
+		indexed.clear();
+		top.clear();
+		bound = 0;
+		Arrays.fill(incidentSize, 0);
+		Arrays.fill(atSource, -1);
+		for (int e = 0; e < edges.limit(); e++)
+			if (edges.isLive(e))
+				set(edges.getKey(e), sampler.weightOf(e), edges.getCount(e));
+		edges.clearChanges();
+		rebuilt = true;
+	}
+
+	private void set(long key, double weight, int count) {
+		int id = indexed.upsert(key);
+		boolean added = !isLinked(id);
+		double previous = indexed.getWeight(id);
+		indexed.setWeight(id, weight);
+		indexed.setCount(id, count);
+		if (added) {
+			link(id, key);
+		} else {
+			markDirty(EdgeTable.source(key));
+			markDirty(EdgeTable.target(key));
+		}
+
+		if (top.contains(id)) {
+			if (weight >= previous)
+				top.increased(id);
+			else
+				top.decreased(id);
+			topChanged = true;
+		} else if (offerTop(id)) {
+			topChanged = true;
+		}
+	}
+
+	private void remove(int id) {
+		unlink(id);
+		if (top.contains(id)) {
+			top.remove(id);
+			topChanged = true;
+		}
+		indexed.remove(id);
+	}
+
+	private boolean isLinked(int id) {
+		return id < atSource.length && atSource[id] >= 0;
+	}
+
+	private void link(int id, long key) {
+		if (id >= atSource.length) {
+			int n = Math.max(id + 1, indexed.capacity());
+			int old = atSource.length;
+			atSource = Arrays.copyOf(atSource, n);
+			atTarget = Arrays.copyOf(atTarget, n);
+			Arrays.fill(atSource, old, n, -1);
+		}
+		int source = EdgeTable.source(key);
+		int target = EdgeTable.target(key);
+		atSource[id] = append(source, id);
+		atTarget[id] = source == target ? -1 : append(target, id);
+	}
+
+	private int append(int node, int id) {
+		if (node >= incident.length) {
+			int n = Math.max(node + 1, incident.length * 2);
+			incident = Arrays.copyOf(incident, n);
+			incidentSize = Arrays.copyOf(incidentSize, n);
+			dirty = Arrays.copyOf(dirty, (n + 63) >>> 6);
+		}
+		int[] list = incident[node];
+		int size = incidentSize[node];
+		if (list == null)
+			list = incident[node] = new int[4];
+		else if (size == list.length)
+			list = incident[node] = Arrays.copyOf(list, size * 2);
+		list[size] = id;
+		incidentSize[node] = size + 1;
+		markDirty(node);
+		return size;
+	}
+
+	private void unlink(int id) {
+		long key = indexed.getKey(id);
+		int source = EdgeTable.source(key);
+		int target = EdgeTable.target(key);
+		removeAt(source, atSource[id]);
+		if (source != target)
+			removeAt(target, atTarget[id]);
+		atSource[id] = -1;
+	}
+
+	// moves the last edge of the list into the position
+	private void removeAt(int node, int position) {
+		int last = --incidentSize[node];
+		int moved = incident[node][last];
+		incident[node][position] = moved;
+		if (EdgeTable.source(indexed.getKey(moved)) == node)
+			atSource[moved] = position;
+		else
+			atTarget[moved] = position;
+		markDirty(node);
+	}
+
+	private void markDirty(int node) {
+		dirty[node >>> 6] |= 1L << node;
+	}
+
+	private void publish() {
+		int valid = sortTop(null);
+		if (valid < Math.min(heavyHitters, indexed.size()) / 2) {
+			// removals emptied the exact part of the heap, refill it from every edge
+			top.clear();
+			bound = 0;
+			for (int id = 0; id < indexed.limit(); id++)
+				if (indexed.isLive(id))
+					offerTop(id);
+			topChanged = true;
+		}
+
+		View previous = view;
+		int chunkCount = (incident.length + CHUNK - 1) >>> CHUNK_BITS;
+		Adjacency[][] chunks = previous == null || rebuilt ? new Adjacency[chunkCount][]
+				: Arrays.copyOf(previous.chunks, Math.max(chunkCount, previous.chunks.length));
+		boolean[] copied = new boolean[chunks.length];
+		for (int word = 0; word < dirty.length; word++) {
+			for (long bits = dirty[word]; bits != 0; bits &= bits - 1) {
+				int node = (word << 6) + Long.numberOfTrailingZeros(bits);
+				int c = node >>> CHUNK_BITS;
+				if (!copied[c]) {
+					chunks[c] = chunks[c] == null ? new Adjacency[CHUNK] : chunks[c].clone();
+					copied[c] = true;
+				}
+				chunks[c][node & (CHUNK - 1)] = adjacency(node);
+			}
+			dirty[word] = 0;
+		}
+		rebuilt = false;
+
+		long[] topKeys;
+		double[] topWeights;
+		int[] topCounts;
+		int topValid;
+		if (topChanged || previous == null) {
+			int[] order = new int[top.size()];
+			topValid = sortTop(order);
+			topKeys = new long[topValid];
+			topWeights = new double[topValid];
+			topCounts = new int[topValid];
+			for (int i = 0; i < topValid; i++) {
+				topKeys[i] = indexed.getKey(order[i]);
+				topWeights[i] = indexed.getWeight(order[i]);
+				topCounts[i] = indexed.getCount(order[i]);
+			}
+			topChanged = false;
+		} else {
+			topKeys = previous.topKeys;
+			topWeights = previous.topWeights;
+			topCounts = previous.topCounts;
+		}
+		view = new View(chunks, topKeys, topWeights, topCounts, decay, indexed.size(), ++version,
+				sampler.nodes().names());
+	}
+
+	// adds the edge to the heap when it has room or the edge outweighs its lightest one, returns whether it was added
+	private boolean offerTop(int id) {
+		double weight = indexed.getWeight(id);
+		if (top.size() < heavyHitters) {
+			top.add(id);
+			return true;
+		}
+		if (weight > indexed.getWeight(top.peek())) {
+			bound = Math.max(bound, indexed.getWeight(top.poll()));
+			top.add(id);
+			return true;
+		}
+		bound = Math.max(bound, weight);
+		return false;
+	}
+
+	// the number of heap members weighing at least bound, with order filled heaviest first when given
+	private int sortTop(int[] order) {
+		int n = top.size();
+		if (order == null) {
+			int valid = 0;
+			for (int i = 0; i < n; i++)
+				if (indexed.getWeight(top.get(i)) >= bound)
+					valid++;
+			return valid;
+		}
+		// the heap polls lightest first, it is filled again afterwards
+		for (int i = n - 1; i >= 0; i--)
+			order[i] = top.poll();
+		for (int i = 0; i < n; i++)
+			top.add(order[i]);
+		int valid = 0;
+		while (valid < n && indexed.getWeight(order[valid]) >= bound)
+			valid++;
+		return valid;
+	}
+
+	private Adjacency adjacency(int node) {
+		int size = node < incidentSize.length ? incidentSize[node] : 0;
+		if (size == 0)
+			return null;
+		int[] list = incident[node];
+		long[] keys = new long[size];
+		double[] weights = new double[size];
+		int[] counts = new int[size];
+		double total = 0;
+		for (int i = 0; i < size; i++) {
+			keys[i] = indexed.getKey(list[i]);
+			weights[i] = indexed.getWeight(list[i]);
+			counts[i] = indexed.getCount(list[i]);
+			total += weights[i];
+		}
+		return new Adjacency(keys, weights, counts, total);
+	}
+
+	// the edges of one node in a view, weights divided by the decay of the view
+	private static class Adjacency {
+		final long[] keys;
+		final double[] weights;
+		final int[] counts;
+		final double total;
+
+		Adjacency(long[] keys, double[] weights, int[] counts, double total) {
+			this.keys = keys;
+			this.weights = weights;
+			this.counts = counts;
+			this.total = total;
+		}
+	}
+
+	/** The sample as of one update. Never changes, any number of threads can query it. */
+	public static class View {
+		private final Adjacency[][] chunks;
+		private final long[] topKeys;
+		private final double[] topWeights;
+		private final int[] topCounts;
+		private final double decay;
+		private final int size;
+		private final long version;
+		private final NodeDictionary.Names names;
+
+		private View(Adjacency[][] chunks, long[] topKeys, double[] topWeights, int[] topCounts, double decay,
+				int size, long version, NodeDictionary.Names names) {
+			this.chunks = chunks;
+			this.topKeys = topKeys;
+			this.topWeights = topWeights;
+			this.topCounts = topCounts;
+			this.decay = decay;
+			this.size = size;
+			this.version = version;
+			this.names = names;
+		}
+
+		/** Number of edges in the sample. */
+		public int size() {
+			return size;
+		}
+
+		/** Number of the update that published this view, to tell whether the sample moved on. */
+		public long version() {
+			return version;
+		}
+
+		/** The node names as of this view, for the node ids given to visitors. */
+		public NodeDictionary.Names names() {
+			return names;
+		}
+
+		/** The id of a node, -1 when it was not seen yet. */
+		public int node(String name) {
+			return names.find(name);
+		}
+
+		/**
+		 * Visits the k heaviest edges of the sample, heaviest first, and returns how many were visited. At most
+		 * heavyHitters edges of the index are known exactly, fewer right after many of them left the sample.
+		 */
+		public int topEdges(int k, EdgeVisitor visitor) {
+			int n = Math.min(k, topKeys.length);
+			for (int i = 0; i < n; i++)
+				visitor.edge(EdgeTable.source(topKeys[i]), EdgeTable.target(topKeys[i]), topWeights[i] * decay,
+						topCounts[i]);
+			return n;
+		}
+
+		/** Number of sampled edges the node is the source or target of. */
+		public int degree(int node) {
+			Adjacency a = adjacency(node);
+			return a == null ? 0 : a.keys.length;
+		}
+
+		/** Sum of the weights of the sampled edges of the node. */
+		public double weightedDegree(int node) {
+			Adjacency a = adjacency(node);
+			return a == null ? 0 : a.total * decay;
+		}
+
+		/** Visits the sampled edges of the node, in no particular order, and returns how many were visited. */
+		public int neighbors(int node, EdgeVisitor visitor) {
+			Adjacency a = adjacency(node);
+			if (a == null)
+				return 0;
+			for (int i = 0; i < a.keys.length; i++)
+				visitor.edge(EdgeTable.source(a.keys[i]), EdgeTable.target(a.keys[i]), a.weights[i] * decay,
+						a.counts[i]);
+			return a.keys.length;
+		}
+
+		private Adjacency adjacency(int node) {
+			int c = node >>> CHUNK_BITS;
+			if (node < 0 || c >= chunks.length || chunks[c] == null)
+				return null;
+			return chunks[c][node & (CHUNK - 1)];
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/* Answers queries on the views of a SampleIndex over a local socket, one text command per line, so the sample of a
+ * running StreamingEngine can be inspected without waiting for a snapshot. Nodes are given by name.
+ *   size                 edges of the sample and the version of the view
+ *   top <k>              the k heaviest edges, SOURCE,TARGET,WEIGHT,COUNT per line
+ *   degree <node>        DEGREE,WEIGHTED_DEGREE
+ *   neighbors <node>     the edges of the node, SOURCE,TARGET,WEIGHT,COUNT per line
+ * Every answer ends with an empty line, a command that cannot be answered gets ERROR and the reason.
+ * Clients are served one at a time on a daemon thread, each command reads the latest view.
+ */
+package dynamic.sampling;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+public class SampleQueryServer extends Thread {
+	private final SampleIndex index;
+	private final ServerSocket server;
+
+	public SampleQueryServer(SampleIndex index, int port) throws IOException {
+		super("sample-query-" + port);
+		this.index = index;
+		this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		setDaemon(true);
+	}
+
+	public void run() {
+		while (!server.isClosed()) {
+			try {
+				Socket client = server.accept();
+				try {
+					serve(client);
+				} finally {
+					client.close();
+				}
+			} catch (IOException e) {
+				if (!server.isClosed())
+					e.printStackTrace();
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		server.close();
+	}
+
+	private void serve(Socket client) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+		final PrintWriter out = new PrintWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8));
+		String line;
+		while ((line = in.readLine()) != null) {
+			String[] split = line.trim().split("\\s+", 2);
+			final SampleIndex.View view = index.view();
+			EdgeVisitor printer = new EdgeVisitor() {
+				public void edge(int source, int target, double weight, int count) {
+					out.println(view.names().name(source) + "," + view.names().name(target) + "," + weight + "," + count);
+				}
+			};
+			try {
+				if (split[0].equals("size")) {
+					out.println(view.size() + "," + view.version());
+				} else if (split[0].equals("top") && split.length == 2) {
+					view.topEdges(Integer.parseInt(split[1]), printer);
+				} else if (split[0].equals("degree") && split.length == 2) {
+					int node = view.node(split[1]);
+					out.println(view.degree(node) + "," + view.weightedDegree(node));
+				} else if (split[0].equals("neighbors") && split.length == 2) {
+					view.neighbors(view.node(split[1]), printer);
+				} else if (!split[0].isEmpty()) {
+					out.println("ERROR unknown command: " + line);
+				}
+			} catch (NumberFormatException e) {
+				out.println("ERROR not a number: " + line);
+			}
+			out.println();
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/* Throughput and allocation of the per edge update path of the four samplers, on synthetic power-law multigraph
+ * streams held in memory, so no file reading or console output is measured.
+ * Every combination of node count and repeat ratio gets its own stream: node ids are drawn from a Zipf distribution and
+ * with the repeat ratio an edge repeats one of the last 1024 edges instead. The stream is cut into timesteps of equal
+ * length, closed with endOfTimestep as the batch programs close a file.
+ * Every sampler runs over the stream warmup times and then iterations times, each time from a new instance, and one
+ * line is reported per configuration: edges/sec (mean and standard deviation over the iterations), bytes allocated
+ * per edge by the benchmark thread, collections and collection time of the measured iterations, and the churn:
+ * edges removed from the sample (evicted or replaced) per stream edge.
+ * -admit runs sbias and reservoir again behind an AdmissionFilter admitting at that count, 0 for none, to measure the
+ * churn and allocation it saves and what it costs per edge.
+ * With -csv the lines are also appended to a file, tagged with -label, to compare two versions of the code.
+ *
+ * Usage: SamplerBenchmark [-samplers sbias,smoothing,reservoir,random] [-nodes 10000,100000] [-repeat 0.0,0.5,0.9]
+ *        [-reservoir 1000,100000] [-threshold 0.1,1.0] [-att 0.5] [-edges 2000000] [-timesteps 30] [-seed 1]
+ *        [-admit 0,2] [-warmup 2] [-iterations 5] [-label name] [-csv file]
+ */
+package dynamic.sampling;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+public class SamplerBenchmark {
+	private static String[] SAMPLERS = { "sbias", "smoothing", "reservoir", "random" };
+	private static int[] NODES = { 10000, 100000 };
+	private static double[] REPEAT = { 0.0, 0.5, 0.9 };
+	private static int[] RESERVOIR = { 1000, 100000 };
+	private static double[] THRESHOLD = { 0.1, 1.0 };
+	private static int[] ADMIT = { 0 };
+	private static double ADMISSION_EPSILON = 1e-5;
+	private static double ADMISSION_DELTA = 0.01;
+	private static double ATT_FACTOR = 0.5;
+	private static int EDGES = 2000000;
+	private static int TIMESTEPS = 30;
+	private static long SEED = 1;
+	private static int WARMUP = 2;
+	private static int ITERATIONS = 5;
+	private static String LABEL = "";
+	private static String CSV = null;
+
+	private static final int RECENT_EDGES = 1024;
+
+	private final int[] sources;
+	private final int[] targets;
+	private final long[] times;
+	private final NodeDictionary nodes = new NodeDictionary();
+
+	public static void main(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			if (args[i].equals("-samplers"))
+				SAMPLERS = value.split(",");
+			else if (args[i].equals("-nodes"))
+				NODES = ints(value);
+			else if (args[i].equals("-repeat"))
+				REPEAT = doubles(value);
+			else if (args[i].equals("-reservoir"))
+				RESERVOIR = ints(value);
+			else if (args[i].equals("-threshold"))
+				THRESHOLD = doubles(value);
+			else if (args[i].equals("-admit"))
+				ADMIT = ints(value);
+			else if (args[i].equals("-att"))
+				ATT_FACTOR = Double.parseDouble(value);
+			else if (args[i].equals("-edges"))
+				EDGES = Integer.parseInt(value);
+			else if (args[i].equals("-timesteps"))
+				TIMESTEPS = Integer.parseInt(value);
+			else if (args[i].equals("-seed"))
+				SEED = Long.parseLong(value);
+			else if (args[i].equals("-warmup"))
+				WARMUP = Integer.parseInt(value);
+			else if (args[i].equals("-iterations"))
+				ITERATIONS = Integer.parseInt(value);
+			else if (args[i].equals("-label"))
+				LABEL = value;
+			else if (args[i].equals("-csv"))
+				CSV = value;
+			else
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+		}
+		try {
+			PrintWriter csv = CSV == null ? null : new PrintWriter(new FileWriter(CSV, true));
+			System.out.println("label,sampler,nodes,repeat,reservoir,threshold,admit,edges/sec,stddev,bytes/edge,gc count,"
+					+ "gc ms,removed/edge");
+			for (int nodeCount : NODES) {
+				for (double repeat : REPEAT) {
+					SamplerBenchmark stream = new SamplerBenchmark(nodeCount, repeat, EDGES, TIMESTEPS, SEED);
+					for (String sampler : SAMPLERS) {
+						boolean reservoir = sampler.equals("reservoir") || sampler.equals("random");
+						int[] sizes = reservoir ? RESERVOIR : new int[] { 0 };
+						double[] thresholds = reservoir ? new double[] { 0 } : THRESHOLD;
+						for (int size : sizes)
+							for (double threshold : thresholds)
+								for (int admit : ADMIT) {
+									if (admit > 0 && !sampler.equals("sbias") && !sampler.equals("reservoir"))
+										continue;
+									String line = stream.measure(sampler, nodeCount, repeat, size, threshold, admit);
+									System.out.println(line);
+									if (csv != null) {
+										csv.println(line);
+										csv.flush();
+									}
+								}
+					}
+				}
+			}
+			if (csv != null)
+				csv.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public SamplerBenchmark(int nodeCount, double repeat, int edges, int timesteps, long seed) {
+		sources = new int[edges];
+		targets = new int[edges];
+		times = new long[edges];
+		for (int i = 0; i < nodeCount; i++)
+			nodes.intern(String.valueOf(i));
+		// cumulative Zipf weights 1/rank, searched for every endpoint
+		double[] cdf = new double[nodeCount];
+		double sum = 0;
+		for (int i = 0; i < nodeCount; i++) {
+			sum += 1.0 / (i + 1);
+			cdf[i] = sum;
+		}
+		StreamRandom random = new StreamRandom(seed);
+		int perTimestep = Math.max(1, edges / Math.max(1, timesteps));
+		for (int i = 0; i < edges; i++) {
+			if (i >= RECENT_EDGES && random.nextDouble() < repeat) {
+				int j = i - 1 - random.nextInt(RECENT_EDGES);
+				sources[i] = sources[j];
+				targets[i] = targets[j];
+			} else {
+				sources[i] = zipf(cdf, sum, random);
+				targets[i] = zipf(cdf, sum, random);
+			}
+			// days from 2020-01-01, packed as yyyyMMddHHmmss like the readers parse TIMESTAMP
+			times[i] = day(i / perTimestep);
+		}
+	}
+
+	private static int zipf(double[] cdf, double sum, StreamRandom random) {
+		int i = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+		return i >= 0 ? i : Math.min(-i - 1, cdf.length - 1);
+	}
+
+	private static long day(int n) {
+		// 28 days per month keeps every packed date valid
+		long year = 2020 + n / (12 * 28);
+		long month = 1 + n / 28 % 12;
+		long dayOfMonth = 1 + n % 28;
+		return ((year * 100 + month) * 100 + dayOfMonth) * 1000000L;
+	}
+
+	private EdgeSampler create(String sampler, int reservoirSize, double threshold, int admit) {
+		if (sampler.equals("sbias")) {
+			SBias sbias = new SBias(nodes, ATT_FACTOR, threshold, true, true, TimestepBucketer.DAY);
+			if (admit > 0)
+				sbias.setAdmissionFilter(new AdmissionFilter(admit, ADMISSION_EPSILON, ADMISSION_DELTA,
+						Math.max(1, sources.length / Math.max(1, TIMESTEPS))));
+			return sbias;
+		}
+		if (sampler.equals("smoothing"))
+			return new ExponentialSmoothing(nodes, ATT_FACTOR, threshold, false);
+		if (sampler.equals("reservoir")) {
+			ReservoirSampling reservoir = new ReservoirSampling(nodes, reservoirSize, false, false, new StreamRandom(SEED));
+			if (admit > 0)
+				reservoir.setAdmissionFilter(new AdmissionFilter(admit, ADMISSION_EPSILON, ADMISSION_DELTA,
+						(long) ReservoirSampling.ADMISSION_AGING_RESERVOIRS * reservoirSize));
+			return reservoir;
+		}
+		if (sampler.equals("random"))
+			return new RandomStreamSampling(nodes, reservoirSize, false, new StreamRandom(SEED));
+		throw new IllegalArgumentException("Unknown sampler: " + sampler);
+	}
+
+	private String measure(String sampler, int nodeCount, double repeat, int reservoirSize, double threshold,
+			int admit) {
+		for (int i = 0; i < WARMUP; i++)
+			run(create(sampler, reservoirSize, threshold, admit));
+
+		double[] rates = new double[ITERATIONS];
+		long allocated = 0;
+		long gcCount = gcCount();
+		long gcMillis = gcMillis();
+		long removed = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			EdgeSampler instance = create(sampler, reservoirSize, threshold, admit);
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			run(instance);
+			long nanos = System.nanoTime() - start;
+			allocated += allocatedBytes() - bytes;
+			rates[i] = sources.length / (nanos / 1e9);
+			removed += instance.metrics().getEvictions() + instance.metrics().getReplacements();
+		}
+		double mean = 0;
+		for (double r : rates)
+			mean += r / rates.length;
+		double variance = 0;
+		for (double r : rates)
+			variance += (r - mean) * (r - mean) / Math.max(1, rates.length - 1);
+		long edges = (long) ITERATIONS * sources.length;
+		return String.format(Locale.ROOT, "%s,%s,%d,%.2f,%d,%s,%d,%.0f,%.0f,%.2f,%d,%d,%.3f", LABEL, sampler, nodeCount,
+				repeat, reservoirSize, threshold, admit, mean, Math.sqrt(variance), (double) allocated / edges,
+				gcCount() - gcCount, gcMillis() - gcMillis, (double) removed / edges);
+	}
+
+	// the update path as the programs drive it, a timestep closes when the date changes
+	private void run(EdgeSampler sampler) {
+		long timestep = times[0];
+		for (int i = 0; i < sources.length; i++) {
+			if (times[i] != timestep) {
+				sampler.endOfTimestep(timestep);
+				timestep = times[i];
+			}
+			sampler.edge(sources[i], targets[i], times[i]);
+		}
+		sampler.endOfTimestep(timestep);
+	}
+
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+		return 0;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			millis += Math.max(0, gc.getCollectionTime());
+		return millis;
+	}
+
+	private static int[] ints(String list) {
+		String[] split = list.split(",");
+		int[] values = new int[split.length];
+		for (int i = 0; i < split.length; i++)
+			values[i] = Integer.parseInt(split[i]);
+		return values;
+	}
+
+	private static double[] doubles(String list) {
+		String[] split = list.split(",");
+		double[] values = new double[split.length];
+		for (int i = 0; i < split.length; i++)
+			values[i] = Double.parseDouble(split[i]);
+		return values;
+	}
+}
@@ -0,0 +1,107 @@
+/* Counters of a sampler while it runs, for monitoring long runs: edges taken in, sample size, timesteps closed, reservoir
+ * replacements, edges evicted by threshold or budget, and the durations of decay pauses and snapshot writes.
+ * Counters are LongAdders, so the ShardedSBias shards count into one instance without contending, and recording costs
+ * an uncontended add on the edge path. The reservoirs, whose edge path is shortest, add their stream position every
+ * EDGE_COUNT_STEP edges and at endOfTimestep instead of once per edge. The sample size is kept as edges added minus edges removed, so it can be read
+ * from any thread without touching the sampler.
+ * register publishes the counters as an MBean under dynamic.sampling:type=Sampler,name=<name>, a MetricsReporter
+ * prints them periodically.
+ */
+package dynamic.sampling;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class SamplerMetrics implements SamplerMetricsMBean {
+	static final int EDGE_COUNT_STEP = 1024;
+
+	final LongAdder edges = new LongAdder();
+	final LongAdder sampleSize = new LongAdder();
+	final LongAdder timesteps = new LongAdder();
+	final LongAdder replacements = new LongAdder();
+	final LongAdder evictions = new LongAdder();
+	final LatencyHistogram decay = new LatencyHistogram();
+	final LatencyHistogram snapshots = new LatencyHistogram();
+
+	/** Publishes the counters through the platform MBean server, replacing an earlier registration of the name. */
+	public void register(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName("dynamic.sampling:type=Sampler,name=" + ObjectName.quote(name));
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+			server.registerMBean(this, objectName);
+		} catch (JMException e) {
+			throw new IllegalStateException("Cannot register the metrics of " + name, e);
+		}
+	}
+
+	/** Records the duration of a snapshot of the sample, from copying it to the end of writing it. */
+	public void snapshotWritten(long nanos) {
+		snapshots.record(nanos);
+	}
+
+	public LatencyHistogram decay() {
+		return decay;
+	}
+
+	public LatencyHistogram snapshots() {
+		return snapshots;
+	}
+
+	public long getEdges() {
+		return edges.sum();
+	}
+
+	public long getSampleSize() {
+		return sampleSize.sum();
+	}
+
+	public long getTimesteps() {
+		return timesteps.sum();
+	}
+
+	public long getReplacements() {
+		return replacements.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getDecayCount() {
+		return decay.count();
+	}
+
+	public double getDecayMeanMillis() {
+		return decay.meanNanos() / 1e6;
+	}
+
+	public double getDecayP99Millis() {
+		return decay.percentileNanos(0.99) / 1e6;
+	}
+
+	public double getDecayMaxMillis() {
+		return decay.maxNanos() / 1e6;
+	}
+
+	public long getSnapshotCount() {
+		return snapshots.count();
+	}
+
+	public double getSnapshotMeanMillis() {
+		return snapshots.meanNanos() / 1e6;
+	}
+
+	public double getSnapshotP99Millis() {
+		return snapshots.percentileNanos(0.99) / 1e6;
+	}
+
+	public double getSnapshotMaxMillis() {
+		return snapshots.maxNanos() / 1e6;
+	}
+}
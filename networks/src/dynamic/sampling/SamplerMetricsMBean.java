@@ -0,0 +1,31 @@
+/* The JMX view of a SamplerMetrics, times in milliseconds.
+ */
+package dynamic.sampling;
+
+public interface SamplerMetricsMBean {
+	long getEdges();
+
+	long getSampleSize();
+
+	long getTimesteps();
+
+	long getReplacements();
+
+	long getEvictions();
+
+	long getDecayCount();
+
+	double getDecayMeanMillis();
+
+	double getDecayP99Millis();
+
+	double getDecayMaxMillis();
+
+	long getSnapshotCount();
+
+	double getSnapshotMeanMillis();
+
+	double getSnapshotP99Millis();
+
+	double getSnapshotMaxMillis();
+}
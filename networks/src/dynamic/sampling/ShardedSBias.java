@@ -0,0 +1,321 @@
+/* SBias spread over several cores. Edges are partitioned by a hash of their key over SHARDS worker threads, each
+ * running its own SBias over its part of the edges with its own scale, heap and threshold pass. The thread that reads
+ * the stream only interns the nodes, detects the timestep changes and hands batches of keys to the workers.
+ * A timestep change is sent to every shard in order with the edges, so every shard forgets exactly when the
+ * sequential SBias would, and as decay and eviction only depend on the edge itself the union of the shards is the
+ * sample of the sequential algorithm, weight for weight.
+ * The sample is only read at a barrier: edges(), weightOf, size and forEachEdge first wait until every shard has
+ * sampled all edges handed to it, then merge the changes of the shards into one EdgeTable view. Entries of the view
+ * point at their shard entry and read the weight from there, so decay is never copied.
+ */
+package dynamic.sampling;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+public class ShardedSBias implements EdgeSampler {
+	private static double ATT_FACTOR = 1.0;
+	private static double THRESHOLD = 0.0;
+	private static boolean LAZY_DECAY = true;
+	private static boolean DIRECTED = true;
+	private static TimestepBucketer TIMESTEP = TimestepBucketer.DAY;
+	// number of worker threads, each holding one part of the sample
+	private static int SHARDS = Runtime.getRuntime().availableProcessors();
+	private static boolean GZIP_OUTPUT = false;
+	// seconds between metric lines on the console, 0 for none, the metrics are in JMX either way
+	private static int METRICS_EVERY = 0;
+	private static int start_file_num = 1;
+	private static int last_file_num = 100;
+	public static final String INPUT_FOLDER_NAME = "/folder/path/";
+	public static final String OUTPUT_FOLDER_NAME = "/result/folder/path/";
+
+	// keys per batch handed to a shard, and batches that may wait for one
+	private static final int BATCH_SIZE = 4096;
+	private static final int QUEUED_BATCHES = 8;
+	// markers in the key stream and batch lengths, node ids are never negative so keys are not
+	private static final long NEXT_TIMESTEP = -1L;
+	private static final int BARRIER = -1;
+	private static final int STOP = -2;
+
+	private final NodeDictionary nodes;
+	private final MappedEdgeReader reader;
+	private final double attFactor;
+	private final TimestepBucketer bucketer;
+	private final Shard[] shards;
+	private final CyclicBarrier barrier;
+	private final EdgeTable merged;
+	private int[] shardOf = new int[1024];
+	private int[] shardEntry = new int[1024];
+	private boolean started = false;
+	private long currentDate;
+	private double decay = 1.0;
+	private boolean dirty = false;
+	private volatile Throwable failure;
+	private final SamplerMetrics metrics = new SamplerMetrics();
+
+	public ShardedSBias(NodeDictionary nodes, double attFactor, double threshold, boolean lazyDecay, boolean directed,
+			TimestepBucketer bucketer, int shardCount) {
+		if (shardCount <= 0)
+			throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+		this.nodes = nodes;
+		this.reader = new MappedEdgeReader(nodes);
+		this.attFactor = attFactor;
+		this.bucketer = bucketer;
+		this.merged = new EdgeTable(1024, directed);
+		this.barrier = new CyclicBarrier(shardCount + 1);
+		this.shards = new Shard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard(i, new SBias(nodes, attFactor, threshold, lazyDecay, directed, bucketer, 0, null,
+					metrics));
+			shards[i].start();
+		}
+	}
+
+	public static void main(String[] args) {
+		try {
+			long startTimeinMilliSeconds = new Date().getTime();
+			ShardedSBias sampler = new ShardedSBias(new NodeDictionary(), ATT_FACTOR, THRESHOLD, LAZY_DECAY, DIRECTED,
+					TIMESTEP, SHARDS);
+			SnapshotWriter snapshots = new SnapshotWriter(GZIP_OUTPUT, true);
+			sampler.metrics().register("ShardedSBias");
+			MetricsReporter reporter = METRICS_EVERY > 0 ? new MetricsReporter(METRICS_EVERY) : null;
+			if (reporter != null)
+				reporter.add("ShardedSBias", sampler.metrics());
+			for (int fileName = start_file_num; fileName <= last_file_num; fileName++) {
+				System.out.println("Reading File : " + fileName + "    ..............");
+				sampler.read(new File(INPUT_FOLDER_NAME + fileName));
+				snapshots.write(sampler, new File(OUTPUT_FOLDER_NAME + fileName));
+			}
+			snapshots.close();
+			sampler.close();
+			if (reporter != null)
+				reporter.close();
+			long endTimeinMilliSeconds = new Date().getTime();
+
+			System.out.println("Time to compute in MilliSeconds: " + (endTimeinMilliSeconds - startTimeinMilliSeconds));
+			System.out.println("DONE !");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void read(File file) throws IOException {
+		reader.read(file, this);
+	}
+
+	public void edge(int source, int target, long time) {
+		long date = bucketer.bucket(time);
+		if (started && date != currentDate) {
+			decay *= attFactor;
+			metrics.timesteps.increment();
+			for (Shard shard : shards)
+				shard.append(NEXT_TIMESTEP);
+		}
+		long key = merged.keyOf(source, target);
+		shards[shardOf(key)].append(key);
+		currentDate = date;
+		started = true;
+		dirty = true;
+	}
+
+	private int shardOf(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (((h >>> 32) * shards.length) >>> 32);
+	}
+
+	// the shards forget on the timestamps of the edges, like SBias
+	public void endOfTimestep(long timestep) {
+	}
+
+	/** Waits until every shard has sampled the edges handed to it and brings the merged view up to date. */
+	public void sync() {
+		if (!dirty)
+			return;
+		for (Shard shard : shards)
+			shard.flush(BARRIER);
+		await();
+		checkFailure();
+		for (Shard shard : shards)
+			merge(shard);
+		dirty = false;
+	}
+
+	private void await() {
+		try {
+			barrier.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the shards", e);
+		} catch (BrokenBarrierException e) {
+			checkFailure();
+			throw new IllegalStateException("A shard failed", e);
+		}
+	}
+
+	private void checkFailure() {
+		if (failure != null)
+			throw new IllegalStateException("A shard failed", failure);
+	}
+
+	// every worker waits at the barrier, so its table can be read and its changes cleared here
+	private void merge(Shard shard) {
+		EdgeTable edges = shard.sampler.edges();
+		for (int i = 0; i < edges.removedCount(); i++) {
+			int id = merged.find(edges.getRemovedKey(i));
+			if (id >= 0)
+				merged.remove(id);
+		}
+		for (int entry = edges.nextChanged(0); entry >= 0; entry = edges.nextChanged(entry + 1)) {
+			int id = merged.upsert(edges.getKey(entry));
+			if (id >= shardOf.length) {
+				shardOf = Arrays.copyOf(shardOf, Math.max(id + 1, merged.capacity()));
+				shardEntry = Arrays.copyOf(shardEntry, shardOf.length);
+			}
+			shardOf[id] = shard.index;
+			shardEntry[id] = entry;
+			merged.setCount(id, edges.getCount(entry));
+		}
+		edges.clearChanges();
+	}
+
+	/** Stops the worker threads, the sample stays readable. */
+	public void close() {
+		sync();
+		for (Shard shard : shards)
+			shard.flush(STOP);
+		for (Shard shard : shards) {
+			try {
+				shard.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	public double weightOf(int id) {
+		return shards[shardOf[id]].sampler.weightOf(shardEntry[id]);
+	}
+
+	public void forEachEdge(EdgeVisitor visitor) {
+		sync();
+		for (int id = 0; id < merged.limit(); id++) {
+			if (!merged.isLive(id))
+				continue;
+			long key = merged.getKey(id);
+			visitor.edge(EdgeTable.source(key), EdgeTable.target(key), weightOf(id), merged.getCount(id));
+		}
+	}
+
+	public int size() {
+		sync();
+		return merged.size();
+	}
+
+	public double takeDecay() {
+		double d = decay;
+		decay = 1.0;
+		return d;
+	}
+
+	public NodeDictionary nodes() {
+		return nodes;
+	}
+
+	public EdgeTable edges() {
+		sync();
+		return merged;
+	}
+
+	// the shards count into it, decay pauses are recorded per shard
+	public SamplerMetrics metrics() {
+		return metrics;
+	}
+
+	private class Shard extends Thread {
+		final int index;
+		final SBias sampler;
+		final BlockingQueue<long[]> work = new ArrayBlockingQueue<long[]>(QUEUED_BATCHES);
+		final BlockingQueue<long[]> free = new ArrayBlockingQueue<long[]>(QUEUED_BATCHES + 2);
+		// the batch being filled by the reading thread, its first slot holds the length
+		long[] batch = new long[BATCH_SIZE + 1];
+
+		Shard(int index, SBias sampler) {
+			super("sbias-shard-" + index);
+			this.index = index;
+			this.sampler = sampler;
+			setDaemon(true);
+			sampler.edges().trackChanges();
+		}
+
+		void append(long key) {
+			int n = (int) batch[0];
+			batch[n + 1] = key;
+			batch[0] = n + 1;
+			if (n + 1 == BATCH_SIZE)
+				flush(0);
+		}
+
+		// hands the current batch over, followed by a barrier or stop marker when signal is not 0
+		void flush(int signal) {
+			if (batch[0] > 0) {
+				put(batch);
+				batch = free.poll();
+				if (batch == null)
+					batch = new long[BATCH_SIZE + 1];
+				batch[0] = 0;
+			}
+			if (signal != 0)
+				put(new long[] { signal });
+		}
+
+		private void put(long[] b) {
+			try {
+				work.put(b);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while handing edges to a shard", e);
+			}
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					long[] b = work.take();
+					int n = (int) b[0];
+					if (n == STOP)
+						return;
+					if (n == BARRIER) {
+						barrier.await();
+						continue;
+					}
+					if (failure == null) {
+						try {
+							for (int i = 1; i <= n; i++) {
+								if (b[i] == NEXT_TIMESTEP)
+									sampler.nextTimestep();
+								else
+									sampler.add(b[i]);
+							}
+						} catch (RuntimeException e) {
+							// the shard keeps draining its queue so the reading thread never blocks on it
+							failure = e;
+						}
+					}
+					free.offer(b);
+				}
+			} catch (InterruptedException e) {
+				failure = e;
+				barrier.reset();
+			} catch (BrokenBarrierException e) {
+				failure = e;
+			}
+		}
+	}
+}
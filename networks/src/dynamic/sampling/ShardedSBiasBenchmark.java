@@ -0,0 +1,93 @@
+/* Edges/sec of the sequential SBias and of ShardedSBias with 1, 2, 4 ... up to the given number of shards.
+ * The files are parsed once into memory before timing, so the numbers are the sampling alone and the reading thread
+ * only dispatches. The sample size is printed with every run so the runs can be checked against each other.
+ * Usage: ShardedSBiasBenchmark <file>... [-shards max] [-att factor] [-threshold t] [-rounds n]
+ */
+package dynamic.sampling;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ShardedSBiasBenchmark {
+	private static int MAX_SHARDS = 16;
+	private static double ATT_FACTOR = 0.5;
+	private static double THRESHOLD = 0.3;
+	private static int ROUNDS = 3;
+
+	private static int[] sources = new int[1 << 16];
+	private static int[] targets = new int[1 << 16];
+	private static long[] times = new long[1 << 16];
+	private static int count = 0;
+
+	public static void main(String[] args) {
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-shards"))
+				MAX_SHARDS = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-att"))
+				ATT_FACTOR = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-threshold"))
+				THRESHOLD = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-rounds"))
+				ROUNDS = Integer.parseInt(args[++i]);
+			else
+				files.add(new File(args[i]));
+		}
+		if (files.isEmpty()) {
+			System.out.println("Usage: ShardedSBiasBenchmark <file>... [-shards max] [-att factor] [-threshold t] [-rounds n]");
+			return;
+		}
+		try {
+			NodeDictionary nodes = new NodeDictionary();
+			MappedEdgeReader reader = new MappedEdgeReader(nodes);
+			EdgeHandler loader = new EdgeHandler() {
+				public void edge(int source, int target, long time) {
+					if (count == sources.length) {
+						sources = Arrays.copyOf(sources, count * 2);
+						targets = Arrays.copyOf(targets, count * 2);
+						times = Arrays.copyOf(times, count * 2);
+					}
+					sources[count] = source;
+					targets[count] = target;
+					times[count] = time;
+					count++;
+				}
+			};
+			for (File file : files)
+				reader.read(file, loader);
+			System.out.println(count + " edges, " + nodes.size() + " nodes");
+
+			for (int round = 1; round <= ROUNDS; round++) {
+				SBias sequential = new SBias(nodes, ATT_FACTOR, THRESHOLD, true, true, TimestepBucketer.DAY);
+				long start = System.nanoTime();
+				replay(sequential);
+				report("SBias", round, sequential.size(), System.nanoTime() - start);
+
+				for (int shards = 1; shards <= MAX_SHARDS; shards *= 2) {
+					ShardedSBias sharded = new ShardedSBias(nodes, ATT_FACTOR, THRESHOLD, true, true,
+							TimestepBucketer.DAY, shards);
+					start = System.nanoTime();
+					replay(sharded);
+					int size = sharded.size();
+					report("ShardedSBias x" + shards, round, size, System.nanoTime() - start);
+					sharded.close();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void replay(EdgeHandler handler) {
+		for (int i = 0; i < count; i++)
+			handler.edge(sources[i], targets[i], times[i]);
+	}
+
+	private static void report(String name, int round, int size, long nanos) {
+		System.out.println(name + " round " + round + ": " + nanos / 1000000 + " ms, "
+				+ (long) (count / (nanos / 1e9)) + " edges/sec, sample " + size);
+	}
+}
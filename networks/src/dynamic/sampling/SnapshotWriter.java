@@ -0,0 +1,326 @@
+/* Writes the current sample of a sampler as a SOURCE,TARGET,WEIGHT csv snapshot, the layout of the samplers' output files.
+ * The sample is copied in one pass into primitive arrays (keys and weights) and the node names are taken as a
+ * NodeDictionary.Names view, so ingestion can continue while the copy is written. Lines are encoded straight into
+ * a direct buffer that is written to a FileChannel, names as their bytes and weights by appendWeight, without a String per line.
+ * Weights print exactly as Double.toString prints them (1.0, 0.25, 1.0E-5), so they parse back to the same double.
+ * An entry weighing NaN is not part of the sample and left out, a timescale of MultiScaleSBias that forgot the edge.
+ * With background set, writing runs on a writer thread. At most two snapshots wait for it, the caller of a third waits,
+ * so a slow disk slows ingestion down instead of filling the heap. Writes happen in the order they were asked for,
+ * other file work (checkpoints) can be queued behind them with submit. With gzip the file gets a .gz suffix.
+ */
+package dynamic.sampling;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+public class SnapshotWriter {
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final byte[] HEADER = { 'S', 'O', 'U', 'R', 'C', 'E', ',', 'T', 'A', 'R', 'G', 'E', 'T', ',', 'W', 'E',
+			'I', 'G', 'H', 'T' };
+	// the powers of ten a double holds exactly
+	private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13,
+			1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	// decimals of at most this many digits map to distinct doubles
+	private static final int UNIQUE_DIGITS = 15;
+	private static final double LOG10_2 = 0.30102999566398120;
+
+	private final boolean gzip;
+	private final ThreadPoolExecutor executor;
+	private volatile IOException failure;
+
+	public SnapshotWriter(boolean gzip, boolean background) {
+		this.gzip = gzip;
+		if (background) {
+			executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(2),
+					new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "snapshot-writer");
+							t.setDaemon(true);
+							return t;
+						}
+					}, new RejectedExecutionHandler() {
+						// waits for room in the queue, running the task here would overtake the queued ones
+						public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+							if (executor.isShutdown())
+								throw new RejectedExecutionException("Snapshot writer is closed");
+							try {
+								executor.getQueue().put(r);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+								throw new RejectedExecutionException("Interrupted while waiting for the snapshot writer", e);
+							}
+						}
+					});
+		} else {
+			executor = null;
+		}
+	}
+
+	/** Writes the whole sample synchronously. */
+	public static void writeCsv(EdgeSampler sampler, File file) throws IOException {
+		writeCsv(sampler, sampler.nodes().names(), file);
+	}
+
+	/** Same with the node names taken from a view made earlier. */
+	public static void writeCsv(EdgeSampler sampler, NodeDictionary.Names names, File file) throws IOException {
+		capture(sampler, names).writeTo(file, false);
+	}
+
+	/** Copies the sample and writes it, in the background when the writer was created so. Returns the file written. */
+	public File write(EdgeSampler sampler, File file) throws IOException {
+		return write(sampler, sampler.nodes().names(), file);
+	}
+
+	/**
+	 * Same with the node names taken from a view made earlier, for a sampler fed by another thread than the one
+	 * interning the names.
+	 */
+	public File write(EdgeSampler sampler, NodeDictionary.Names names, File file) throws IOException {
+		if (failure != null)
+			throw failure;
+		long start = System.nanoTime();
+		final Snapshot snapshot = capture(sampler, names);
+		// the time spent waiting in the queue is not part of the snapshot
+		final long captureNanos = System.nanoTime() - start;
+		final SamplerMetrics metrics = sampler.metrics();
+		final File target = gzip ? new File(file.getPath() + ".gz") : file;
+		submit(new Callable<Void>() {
+			public Void call() throws IOException {
+				long start = System.nanoTime();
+				snapshot.writeTo(target, gzip);
+				metrics.snapshotWritten(captureNanos + System.nanoTime() - start);
+				return null;
+			}
+		});
+		return target;
+	}
+
+	/** Runs the task after every write asked for before, on the writer thread when there is one. */
+	public void submit(final Callable<Void> task) throws IOException {
+		if (failure != null)
+			throw failure;
+		if (executor == null) {
+			call(task);
+			if (failure != null)
+				throw failure;
+			return;
+		}
+		executor.execute(new Runnable() {
+			public void run() {
+				call(task);
+			}
+		});
+	}
+
+	private void call(Callable<Void> task) {
+		try {
+			task.call();
+		} catch (IOException e) {
+			failure = e;
+		} catch (Exception e) {
+			failure = new IOException(e);
+		}
+	}
+
+	/** Waits for the snapshots still being written and reports the first failure. */
+	public void close() throws IOException {
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	private static Snapshot capture(EdgeSampler sampler, NodeDictionary.Names names) {
+		EdgeTable edges = sampler.edges();
+		Snapshot snapshot = new Snapshot(names, edges.size());
+		int n = 0;
+		for (int id = 0; id < edges.limit(); id++) {
+			if (!edges.isLive(id))
+				continue;
+			double weight = sampler.weightOf(id);
+			if (Double.isNaN(weight))
+				continue;
+			snapshot.keys[n] = edges.getKey(id);
+			snapshot.weights[n] = weight;
+			n++;
+		}
+		snapshot.size = n;
+		return snapshot;
+	}
+
+	private static class Snapshot {
+		final NodeDictionary.Names names;
+		final long[] keys;
+		final double[] weights;
+		int size;
+
+		Snapshot(NodeDictionary.Names names, int size) {
+			this.names = names;
+			this.keys = new long[size];
+			this.weights = new double[size];
+		}
+
+		void writeTo(File file, boolean gzip) throws IOException {
+			FileOutputStream out = new FileOutputStream(file);
+			WritableByteChannel channel = gzip ? Channels.newChannel(new GZIPOutputStream(out, 1 << 16)) : out.getChannel();
+			try {
+				ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+				buf.put(HEADER);
+				for (int i = 0; i < size; i++) {
+					int source = EdgeTable.source(keys[i]);
+					int target = EdgeTable.target(keys[i]);
+					// line break, two separators and the longest weight
+					if (buf.remaining() < names.length(source) + names.length(target) + 40)
+						flush(buf, channel);
+					buf.put((byte) '\r').put((byte) '\n');
+					putName(buf, channel, source);
+					buf.put((byte) ',');
+					putName(buf, channel, target);
+					buf.put((byte) ',');
+					appendWeight(buf, weights[i]);
+				}
+				flush(buf, channel);
+				if (channel instanceof FileChannel)
+					((FileChannel) channel).force(false);
+			} finally {
+				channel.close();
+			}
+		}
+
+		private void putName(ByteBuffer buf, WritableByteChannel channel, int id) throws IOException {
+			if (names.length(id) <= buf.remaining()) {
+				names.put(id, buf);
+				return;
+			}
+			flush(buf, channel);
+			ByteBuffer name = names.wrap(id);
+			while (name.hasRemaining())
+				channel.write(name);
+		}
+
+		private static void flush(ByteBuffer buf, WritableByteChannel channel) throws IOException {
+			buf.flip();
+			while (buf.hasRemaining())
+				channel.write(buf);
+			buf.clear();
+		}
+	}
+
+	/**
+	 * Appends the weight as ASCII, the same characters as Double.toString(w), at most 24 bytes.
+	 * Decimals of up to 15 digits map to distinct doubles, so if the 15 digit decimal m / 10^k nearest to w parses back
+	 * to it, it is the only one that does, any shorter one padded with zeros is it, and m without its trailing zeros are
+	 * the digits Double.toString picks. The check is one division: m and 10^k are exact doubles and the division rounds
+	 * correctly. Weights needing more digits, below 10^-8 or from 10^15 up, beyond the exact powers of ten and where
+	 * Double.toString prints some with more digits than needed, are copied from Double.toString.
+	 */
+	static void appendWeight(ByteBuffer buf, double w) {
+		if (w == 0 && 1 / w > 0) {
+			buf.put((byte) '0').put((byte) '.').put((byte) '0');
+			return;
+		}
+		double abs = Math.abs(w);
+		if (abs >= 1 && abs < 1e7 && abs == (long) abs) {
+			// counts, the common weight
+			if (w < 0)
+				buf.put((byte) '-');
+			appendLong(buf, (long) abs);
+			buf.put((byte) '.').put((byte) '0');
+			return;
+		}
+		if (abs > 0) {
+			// the decimal exponent of abs is this or one more, so m gets 15 digits or 16 and one fewer is asked for
+			int k = UNIQUE_DIGITS - 1 - (int) Math.floor(Math.getExponent(abs) * LOG10_2);
+			if (k >= 0 && k <= 22) {
+				long m = Math.round(abs * POW10[k]);
+				if (m >= POW10[UNIQUE_DIGITS] && k > 0)
+					m = Math.round(abs * POW10[--k]);
+				if (m < POW10[UNIQUE_DIGITS] && m / POW10[k] == abs) {
+					if (w < 0)
+						buf.put((byte) '-');
+					appendDecimal(buf, m, k);
+					return;
+				}
+			}
+		}
+		String s = Double.toString(w);
+		for (int i = 0; i < s.length(); i++)
+			buf.put((byte) s.charAt(i));
+	}
+
+	// m / 10^k in the layout of Double.toString: plain from 10^-3 up to 10^7, else d.dddE<exponent>
+	private static void appendDecimal(ByteBuffer buf, long m, int k) {
+		if (m % 10000000 == 0) {
+			m /= 10000000;
+			k -= 7;
+		}
+		while (m % 10 == 0) {
+			m /= 10;
+			k--;
+		}
+		// the digits of m, written backwards from the end of a 16 byte array
+		byte[] digits = new byte[16];
+		int first = digits.length;
+		do {
+			digits[--first] = (byte) ('0' + m % 10);
+			m /= 10;
+		} while (m > 0);
+		int length = digits.length - first;
+		int exponent = length - 1 - k;
+		if (exponent >= -3 && exponent < 7) {
+			if (exponent < 0) {
+				buf.put((byte) '0').put((byte) '.');
+				for (int i = -1; i > exponent; i--)
+					buf.put((byte) '0');
+				buf.put(digits, first, length);
+			} else if (length > exponent + 1) {
+				buf.put(digits, first, exponent + 1).put((byte) '.').put(digits, first + exponent + 1,
+						length - exponent - 1);
+			} else {
+				buf.put(digits, first, length);
+				for (int i = length; i <= exponent; i++)
+					buf.put((byte) '0');
+				buf.put((byte) '.').put((byte) '0');
+			}
+			return;
+		}
+		buf.put(digits[first]).put((byte) '.');
+		if (length > 1)
+			buf.put(digits, first + 1, length - 1);
+		else
+			buf.put((byte) '0');
+		buf.put((byte) 'E');
+		appendLong(buf, exponent);
+	}
+
+	private static void appendLong(ByteBuffer buf, long v) {
+		if (v < 0) {
+			buf.put((byte) '-');
+			v = -v;
+		}
+		long div = 1;
+		while (div <= v / 10)
+			div *= 10;
+		for (; div > 0; div /= 10)
+			buf.put((byte) ('0' + v / div % 10));
+	}
+}
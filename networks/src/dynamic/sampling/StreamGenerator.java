@@ -0,0 +1,325 @@
+/* Writes synthetic evolving multigraph streams in the SOURCE,TARGET,TIMESTAMP csv layout the samplers read, one
+ * numbered file per timestep like the real inputs, for load and scaling tests without the call records.
+ * Node names are the numbers 0 .. nodes - 1. Endpoints are drawn from a power law over the node numbers, node k with
+ * probability proportional to 1 / (k + 1)^exponent, so low numbers are the hubs.
+ *   preferential  the graph grows: file f of n only draws from the first nodes * (f + 1) / n nodes, so old nodes keep
+ *                 gathering edges and new ones join with few, the degree pattern of preferential attachment.
+ *                 Timestamps are uniform over the timestep.
+ *   bursty        all nodes are active from the start, edges come in bursts of a source calling several targets
+ *                 (burst length geometric with mean -burst) close together in time (exponential gaps, mean -spread seconds).
+ * With probability -repeat an edge repeats one of the last 1024 edges of its file instead, the repeated calls of a
+ * multigraph. Files are generated in parallel, each from its own generator split off the seeded one in file order, so
+ * the output only depends on the seed and the parameters, never on the number of threads.
+ *
+ * Usage: StreamGenerator -out <folder> [-files 30] [-first 1] [-edges <per file> 1000000] [-nodes 100000]
+ *        [-model preferential|bursty] [-exponent 1.0] [-repeat 0.3] [-burst 10] [-spread 60]
+ *        [-timestep day|hour|month|<seconds>] [-start "2020-01-01 00:00:00"] [-seed 1] [-threads <n>]
+ */
+package dynamic.sampling;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class StreamGenerator {
+	private static final int RECENT_EDGES = 1024;
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final byte[] HEADER = "SOURCE,TARGET,TIMESTAMP\r\n".getBytes();
+
+	private final File folder;
+	private final long edgesPerFile;
+	private final int nodeCount;
+	private final boolean bursty;
+	private final double exponent;
+	private final double repeat;
+	private final double burst;
+	private final double spread;
+	private final String timestep;
+	private final LocalDateTime start;
+
+	public static void main(String[] args) {
+		String out = null;
+		int files = 30;
+		int first = 1;
+		long edges = 1000000;
+		int nodes = 100000;
+		String model = "preferential";
+		double exponent = 1.0;
+		double repeat = 0.3;
+		double burst = 10;
+		double spread = 60;
+		String timestep = "day";
+		String start = "2020-01-01 00:00:00";
+		long seed = 1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			if (args[i].equals("-out"))
+				out = value;
+			else if (args[i].equals("-files"))
+				files = Integer.parseInt(value);
+			else if (args[i].equals("-first"))
+				first = Integer.parseInt(value);
+			else if (args[i].equals("-edges"))
+				edges = Long.parseLong(value);
+			else if (args[i].equals("-nodes"))
+				nodes = Integer.parseInt(value);
+			else if (args[i].equals("-model"))
+				model = value;
+			else if (args[i].equals("-exponent"))
+				exponent = Double.parseDouble(value);
+			else if (args[i].equals("-repeat"))
+				repeat = Double.parseDouble(value);
+			else if (args[i].equals("-burst"))
+				burst = Double.parseDouble(value);
+			else if (args[i].equals("-spread"))
+				spread = Double.parseDouble(value);
+			else if (args[i].equals("-timestep"))
+				timestep = value;
+			else if (args[i].equals("-start"))
+				start = value;
+			else if (args[i].equals("-seed"))
+				seed = Long.parseLong(value);
+			else if (args[i].equals("-threads"))
+				threads = Integer.parseInt(value);
+			else
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+		}
+		if (out == null) {
+			System.out.println("Usage: StreamGenerator -out <folder> [-files n] [-first n] [-edges <per file>] [-nodes n]"
+					+ " [-model preferential|bursty] [-exponent e] [-repeat r] [-burst n] [-spread <seconds>]"
+					+ " [-timestep day|hour|month|<seconds>] [-start \"yyyy-MM-dd HH:mm:ss\"] [-seed n] [-threads n]");
+			return;
+		}
+		if (!model.equals("preferential") && !model.equals("bursty"))
+			throw new IllegalArgumentException("Unknown model: " + model);
+		try {
+			long startTimeinMilliSeconds = new Date().getTime();
+			File folder = new File(out);
+			folder.mkdirs();
+			StreamGenerator generator = new StreamGenerator(folder, edges, nodes, model.equals("bursty"), exponent,
+					repeat, burst, spread, timestep,
+					LocalDateTime.parse(start, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+			generator.generate(first, files, new StreamRandom(seed), threads);
+			long endTimeinMilliSeconds = new Date().getTime();
+
+			System.out.println("Time to compute in MilliSeconds: " + (endTimeinMilliSeconds - startTimeinMilliSeconds));
+			System.out.println("DONE !");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	public StreamGenerator(File folder, long edgesPerFile, int nodeCount, boolean bursty, double exponent,
+			double repeat, double burst, double spread, String timestep, LocalDateTime start) {
+		if (nodeCount < 2)
+			throw new IllegalArgumentException("At least two nodes are needed: " + nodeCount);
+		this.folder = folder;
+		this.edgesPerFile = edgesPerFile;
+		this.nodeCount = nodeCount;
+		this.bursty = bursty;
+		this.exponent = exponent;
+		this.repeat = repeat;
+		this.burst = Math.max(1, burst);
+		this.spread = spread;
+		this.timestep = timestep;
+		this.start = start;
+	}
+
+	/** Writes the files first .. first + files - 1 on the given number of threads. */
+	public void generate(int first, final int files, StreamRandom random, int threads) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			List<Future<Long>> results = new ArrayList<Future<Long>>();
+			for (int f = 0; f < files; f++) {
+				// split in file order whatever thread the file ends up on
+				final StreamRandom fileRandom = random.split();
+				final int index = f;
+				final File file = new File(folder, String.valueOf(first + f));
+				results.add(pool.submit(new Callable<Long>() {
+					public Long call() throws IOException {
+						return generate(file, index, files, fileRandom);
+					}
+				}));
+			}
+			for (int f = 0; f < files; f++) {
+				long written = results.get(f).get();
+				System.out.println("Written File : " + (first + f) + ", " + written + " edges");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while generating", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Generating failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/** Writes the index-th of files timesteps into file and returns the number of edges. */
+	long generate(File file, int index, int files, StreamRandom random) throws IOException {
+		long from = windowStart(index);
+		long width = windowStart(index + 1) - from;
+		int active = bursty ? nodeCount : (int) Math.max(2, (long) nodeCount * (index + 1) / files);
+		PowerLaw law = new PowerLaw(active, exponent);
+		int[] recentSources = new int[RECENT_EDGES];
+		int[] recentTargets = new int[RECENT_EDGES];
+
+		OutputStream out = new FileOutputStream(file);
+		try {
+			byte[] buf = new byte[BUFFER_SIZE];
+			System.arraycopy(HEADER, 0, buf, 0, HEADER.length);
+			int pos = HEADER.length;
+			int burstSource = -1;
+			long burstTime = 0;
+			for (long i = 0; i < edgesPerFile; i++) {
+				int source;
+				int target;
+				long time;
+				if (i >= RECENT_EDGES && random.nextDouble() < repeat) {
+					int j = random.nextInt(RECENT_EDGES);
+					source = recentSources[j];
+					target = recentTargets[j];
+					time = from + random.nextLong(width);
+				} else if (bursty) {
+					// a new burst with probability 1 / burst, so bursts have a geometric length
+					if (burstSource < 0 || random.nextDouble() * burst < 1) {
+						burstSource = law.next(random);
+						burstTime = from + random.nextLong(width);
+					} else {
+						burstTime += (long) (-Math.log(1 - random.nextDouble()) * spread);
+						if (burstTime >= from + width)
+							burstTime = from + width - 1;
+					}
+					source = burstSource;
+					target = otherNode(law, source, random);
+					time = burstTime;
+				} else {
+					source = law.next(random);
+					target = otherNode(law, source, random);
+					time = from + random.nextLong(width);
+				}
+				int slot = (int) (i % RECENT_EDGES);
+				recentSources[slot] = source;
+				recentTargets[slot] = target;
+
+				if (pos > BUFFER_SIZE - 48) {
+					out.write(buf, 0, pos);
+					pos = 0;
+				}
+				pos = putInt(buf, pos, source);
+				buf[pos++] = ',';
+				pos = putInt(buf, pos, target);
+				buf[pos++] = ',';
+				pos = putTimestamp(buf, pos, time);
+				buf[pos++] = '\r';
+				buf[pos++] = '\n';
+			}
+			out.write(buf, 0, pos);
+		} finally {
+			out.close();
+		}
+		return edgesPerFile;
+	}
+
+	// no self loops, the samplers' inputs have none
+	private static int otherNode(PowerLaw law, int source, StreamRandom random) {
+		int target = law.next(random);
+		while (target == source)
+			target = law.next(random);
+		return target;
+	}
+
+	// epoch seconds at the start of the index-th timestep
+	private long windowStart(int index) {
+		LocalDateTime t;
+		if (timestep.equals("month"))
+			t = start.plusMonths(index);
+		else if (timestep.equals("day"))
+			t = start.plusDays(index);
+		else if (timestep.equals("hour"))
+			t = start.plusHours(index);
+		else
+			t = start.plusSeconds(Long.parseLong(timestep) * index);
+		return t.toEpochSecond(ZoneOffset.UTC);
+	}
+
+	private static int putInt(byte[] buf, int pos, int value) {
+		int digits = 1;
+		for (int v = value; v >= 10; v /= 10)
+			digits++;
+		for (int i = pos + digits - 1; i >= pos; i--) {
+			buf[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		return pos + digits;
+	}
+
+	private static int putDigits(byte[] buf, int pos, long value, int digits) {
+		for (int i = pos + digits - 1; i >= pos; i--) {
+			buf[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		return pos + digits;
+	}
+
+	// yyyy-MM-dd HH:mm:ss of epoch seconds, the civil date by the days-from-civil inverse of the proleptic Gregorian calendar
+	static int putTimestamp(byte[] buf, int pos, long epochSeconds) {
+		long days = Math.floorDiv(epochSeconds, 86400);
+		long seconds = epochSeconds - days * 86400;
+		long z = days + 719468;
+		long era = Math.floorDiv(z, 146097);
+		long doe = z - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		long day = doy - (153 * mp + 2) / 5 + 1;
+		long month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+		pos = putDigits(buf, pos, year, 4);
+		buf[pos++] = '-';
+		pos = putDigits(buf, pos, month, 2);
+		buf[pos++] = '-';
+		pos = putDigits(buf, pos, day, 2);
+		buf[pos++] = ' ';
+		pos = putDigits(buf, pos, seconds / 3600, 2);
+		buf[pos++] = ':';
+		pos = putDigits(buf, pos, seconds / 60 % 60, 2);
+		buf[pos++] = ':';
+		pos = putDigits(buf, pos, seconds % 60, 2);
+		return pos;
+	}
+
+	/* Node k of 0 .. n - 1 with probability about 1 / (k + 1)^exponent, by inverting the continuous power law over
+	 * [1, n + 1), so no table of n entries is needed and any node count works.
+	 */
+	static class PowerLaw {
+		private final int n;
+		private final double oneMinusExponent;
+		private final double span;
+
+		PowerLaw(int n, double exponent) {
+			this.n = n;
+			this.oneMinusExponent = 1 - exponent;
+			this.span = oneMinusExponent == 0 ? Math.log(n + 1) : Math.pow(n + 1, oneMinusExponent) - 1;
+		}
+
+		int next(StreamRandom random) {
+			double u = random.nextDouble();
+			double x = oneMinusExponent == 0 ? Math.exp(u * span) : Math.pow(u * span + 1, 1 / oneMinusExponent);
+			return Math.min(n - 1, (int) x - 1);
+		}
+	}
+}
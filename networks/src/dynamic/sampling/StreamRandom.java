@@ -0,0 +1,75 @@
+/* The random generator of the reservoir samplers: SplitMix64, the algorithm of java.util.SplittableRandom, with its
+ * state exposed so a checkpoint can save it and a resumed run continues the same sequence.
+ * Not thread-safe, split gives every thread its own generator.
+ */
+package dynamic.sampling;
+
+import java.util.SplittableRandom;
+
+public class StreamRandom {
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private long state;
+
+	/** A generator with a different sequence every run. */
+	public StreamRandom() {
+		this(new SplittableRandom().nextLong());
+	}
+
+	public StreamRandom(long seed) {
+		this.state = seed;
+	}
+
+	/** The generator for a seed, or an unseeded one when seed is null. */
+	public static StreamRandom of(Long seed) {
+		return seed == null ? new StreamRandom() : new StreamRandom(seed);
+	}
+
+	/** The whole state, new StreamRandom(state()) continues with the same numbers. */
+	public long state() {
+		return state;
+	}
+
+	public void setState(long state) {
+		this.state = state;
+	}
+
+	/** An independent generator, seeded from this one. */
+	public StreamRandom split() {
+		return new StreamRandom(mix64(nextLong()));
+	}
+
+	public long nextLong() {
+		return mix64(state += GOLDEN_GAMMA);
+	}
+
+	/** Uniform in [0, bound). */
+	public long nextLong(long bound) {
+		if (bound <= 0)
+			throw new IllegalArgumentException("Bound must be positive: " + bound);
+		long m = bound - 1;
+		long r = nextLong() >>> 1;
+		if ((bound & m) == 0)
+			return r & m;
+		// rejects the top values that would make the remainder uneven
+		for (long u = r; u - (r = u % bound) + m < 0; u = nextLong() >>> 1)
+			;
+		return r;
+	}
+
+	/** Uniform in [0, bound). */
+	public int nextInt(int bound) {
+		return (int) nextLong(bound);
+	}
+
+	/** Uniform in [0, 1). */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
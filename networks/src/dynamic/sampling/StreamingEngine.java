@@ -0,0 +1,328 @@
+/* Long running mode: one sampler is fed from a continuous EdgeSource instead of numbered input files, and a snapshot
+ * of the sample is written whenever the stream crosses a timestep boundary or a snapshot is asked for.
+ * Timesteps are cut by a TimestepBucketer on the TIMESTAMP column. At a boundary the sampler's timestep is closed first
+ * (ExponentialSmoothing folds it into its sample), then the snapshot is written, then the edge of the new timestep is sampled.
+ * Snapshots on demand come from requestSnapshot or, when started from main with -trigger, from creating the trigger file.
+ * They are taken between two reads of the source, so a source that blocks without data delays them until data comes.
+ * Snapshots are numbered 1, 2, 3 ... in the output folder like the outputs of the batch programs, with -delta they
+ * are written by a DeltaSnapshotWriter, with -format binary as n.snap files of a BinarySnapshotWriter.
+ * Full csv snapshots are written in the background by a SnapshotWriter.
+ *
+ * Usage: StreamingEngine -sampler sbias|smoothing|reservoir|random -source tail:<file>|pipe:<file>|socket:<port>|stdin
+ *        -out <folder> [-timestep day|hour|month|<seconds>] [-att <factor>] [-threshold <t>] [-reservoir <size>]
+ *        [-directed true|false] [-trigger <file>] [-delta <checkpoint every n snapshots>] [-gzip true|false]
+ *        [-format csv|binary] [-skip true|false] [-seed <long>] [-budget <max sbias edges>]
+ *        [-metrics <seconds between metric lines>] [-query <port>] [-publish <millis>] [-spill <folder>]
+ * The metrics of the sampler are registered in JMX as dynamic.sampling:type=Sampler,name=<sampler>.
+ * With -query a SampleIndex of the sample is published every -publish milliseconds (1000 by default), between two
+ * reads, and served by a SampleQueryServer on the local port. It cannot be combined with -delta.
+ * With -spill sbias and smoothing keep their sample in memory-mapped files of the folder instead of the heap.
+ */
+package dynamic.sampling;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+public class StreamingEngine implements EdgeHandler {
+	static final long POLL_MILLIS = 200;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final EdgeSampler sampler;
+	private final EdgeSource source;
+	private final TimestepBucketer bucketer;
+	private final File outputFolder;
+	private final MappedEdgeReader parser;
+	private File trigger;
+	private DeltaSnapshotWriter deltaWriter;
+	// made by run unless set, so that a writer set in its place is the only one started
+	private SnapshotWriter snapshots;
+	private BinarySnapshotWriter binaryWriter;
+	private SampleIndex index;
+	private long publishNanos;
+	private long lastPublish;
+	private volatile boolean snapshotRequested = false;
+	private volatile boolean running = true;
+	private boolean started = false;
+	private long currentTimestep;
+	private int snapshotNumber = 0;
+
+	public StreamingEngine(EdgeSampler sampler, EdgeSource source, TimestepBucketer bucketer, File outputFolder) {
+		this.sampler = sampler;
+		this.source = source;
+		this.bucketer = bucketer;
+		this.outputFolder = outputFolder;
+		this.parser = new MappedEdgeReader(sampler.nodes());
+	}
+
+	public static void main(String[] args) {
+		String samplerName = "sbias";
+		String sourceSpec = "stdin";
+		String out = ".";
+		String timestep = "day";
+		String trigger = null;
+		int delta = 0;
+		boolean gzip = false;
+		String format = "csv";
+		double att = 1.0;
+		double threshold = 0.0;
+		int reservoir = 1000;
+		Boolean directed = null;
+		boolean skip = false;
+		int budget = 0;
+		Long seed = null;
+		int metricsEvery = 0;
+		int queryPort = 0;
+		long publishMillis = 1000;
+		File spill = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			if (args[i].equals("-sampler"))
+				samplerName = value;
+			else if (args[i].equals("-source"))
+				sourceSpec = value;
+			else if (args[i].equals("-out"))
+				out = value;
+			else if (args[i].equals("-timestep"))
+				timestep = value;
+			else if (args[i].equals("-att"))
+				att = Double.parseDouble(value);
+			else if (args[i].equals("-threshold"))
+				threshold = Double.parseDouble(value);
+			else if (args[i].equals("-reservoir"))
+				reservoir = Integer.parseInt(value);
+			else if (args[i].equals("-directed"))
+				directed = Boolean.valueOf(value);
+			else if (args[i].equals("-trigger"))
+				trigger = value;
+			else if (args[i].equals("-delta"))
+				delta = Integer.parseInt(value);
+			else if (args[i].equals("-gzip"))
+				gzip = Boolean.parseBoolean(value);
+			else if (args[i].equals("-skip"))
+				skip = Boolean.parseBoolean(value);
+			else if (args[i].equals("-budget"))
+				budget = Integer.parseInt(value);
+			else if (args[i].equals("-seed"))
+				seed = Long.valueOf(value);
+			else if (args[i].equals("-format"))
+				format = value;
+			else if (args[i].equals("-metrics"))
+				metricsEvery = Integer.parseInt(value);
+			else if (args[i].equals("-query"))
+				queryPort = Integer.parseInt(value);
+			else if (args[i].equals("-publish"))
+				publishMillis = Long.parseLong(value);
+			else if (args[i].equals("-spill"))
+				spill = new File(value);
+			else
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+		}
+		try {
+			TimestepBucketer bucketer = parseTimestep(timestep);
+			NodeDictionary nodes = new NodeDictionary();
+			StreamRandom random = StreamRandom.of(seed);
+			EdgeSampler sampler;
+			if (samplerName.equals("sbias"))
+				sampler = new SBias(nodes, att, threshold, true, directed == null || directed, bucketer, budget, spill);
+			else if (samplerName.equals("smoothing"))
+				sampler = new ExponentialSmoothing(nodes, att, threshold, directed != null && directed, spill);
+			else if (samplerName.equals("reservoir"))
+				sampler = new ReservoirSampling(nodes, reservoir, directed != null && directed, skip, random);
+			else if (samplerName.equals("random"))
+				sampler = new RandomStreamSampling(nodes, reservoir, directed != null && directed, random);
+			else
+				throw new IllegalArgumentException("Unknown sampler: " + samplerName);
+
+			File folder = new File(out);
+			folder.mkdirs();
+			StreamingEngine engine = new StreamingEngine(sampler, EdgeSources.parse(sourceSpec), bucketer, folder);
+			if (trigger != null)
+				engine.setTrigger(new File(trigger));
+			if (delta > 0)
+				engine.setDeltaOutput(delta);
+			if (gzip)
+				engine.setSnapshotWriter(new SnapshotWriter(true, true));
+			if (format.equals("binary"))
+				engine.setBinaryOutput(new BinarySnapshotWriter(att, threshold, reservoir));
+			else if (!format.equals("csv"))
+				throw new IllegalArgumentException("Unknown format: " + format);
+			if (queryPort > 0) {
+				if (delta > 0)
+					throw new IllegalArgumentException("-query cannot be combined with -delta");
+				SampleIndex index = new SampleIndex(sampler, 1000);
+				engine.setIndex(index, publishMillis);
+				new SampleQueryServer(index, queryPort).start();
+			}
+			sampler.metrics().register(samplerName);
+			MetricsReporter reporter = metricsEvery > 0 ? new MetricsReporter(metricsEvery) : null;
+			if (reporter != null)
+				reporter.add(samplerName, sampler.metrics());
+			engine.run();
+			if (reporter != null)
+				reporter.close();
+			System.out.println("DONE !");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	public static TimestepBucketer parseTimestep(String spec) {
+		if (spec.equals("month"))
+			return TimestepBucketer.MONTH;
+		if (spec.equals("day"))
+			return TimestepBucketer.DAY;
+		if (spec.equals("hour"))
+			return TimestepBucketer.HOUR;
+		return TimestepBucketer.seconds(Long.parseLong(spec));
+	}
+
+	/** A snapshot is written, and the file deleted, whenever this file shows up. */
+	public void setTrigger(File trigger) {
+		this.trigger = trigger;
+	}
+
+	/** Writes deltas with a full checkpoint every checkpointEvery snapshots instead of the whole sample each time. */
+	public void setDeltaOutput(int checkpointEvery) {
+		deltaWriter = new DeltaSnapshotWriter(sampler, outputFolder, checkpointEvery);
+	}
+
+	/** Writes the csv snapshots with snapshots instead of a background writer without gzip, run closes it. */
+	public void setSnapshotWriter(SnapshotWriter snapshots) {
+		this.snapshots = snapshots;
+	}
+
+	/** Writes binary snapshots instead of csv ones. */
+	public void setBinaryOutput(BinarySnapshotWriter binaryWriter) {
+		this.binaryWriter = binaryWriter;
+	}
+
+	/** Updates the index at most every publishMillis between two reads, and at every snapshot. */
+	public void setIndex(SampleIndex index, long publishMillis) {
+		this.index = index;
+		this.publishNanos = publishMillis * 1000000L;
+		this.lastPublish = System.nanoTime();
+	}
+
+	/** Asks for a snapshot of the current sample, safe to call from any thread. */
+	public void requestSnapshot() {
+		snapshotRequested = true;
+	}
+
+	/** Makes run return after the current read, safe to call from any thread. */
+	public void stop() {
+		running = false;
+	}
+
+	/** Reads the source until it is exhausted or stopped. The open timestep is closed and written at the end. */
+	public void run() throws IOException {
+		if (snapshots == null)
+			snapshots = new SnapshotWriter(false, true);
+		ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+		try {
+			ReadableByteChannel channel;
+			while (running && (channel = source.next()) != null) {
+				parser.reset();
+				buf.clear();
+				try {
+					readChannel(channel, buf);
+				} finally {
+					channel.close();
+				}
+			}
+		} finally {
+			source.close();
+		}
+		if (started)
+			sampler.endOfTimestep(currentTimestep);
+		writeSnapshot();
+		snapshots.close();
+	}
+
+	private void readChannel(ReadableByteChannel channel, ByteBuffer buf) throws IOException {
+		while (running) {
+			int n = channel.read(buf);
+			if (n < 0 && !source.follow()) {
+				buf.flip();
+				parser.parseLines(buf, 0, buf.limit(), true, this);
+				return;
+			}
+			if (n > 0) {
+				int consumed = parser.parseLines(buf, 0, buf.position(), false, this);
+				buf.flip();
+				buf.position(consumed);
+				buf.compact();
+				if (!buf.hasRemaining()) {
+					// a single line longer than the buffer
+					ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+					buf.flip();
+					bigger.put(buf);
+					buf = bigger;
+				}
+			} else {
+				pollRequests();
+				sleep();
+			}
+			pollRequests();
+		}
+	}
+
+	public void edge(int source, int target, long time) {
+		long timestep = bucketer.bucket(time);
+		if (started && timestep != currentTimestep) {
+			sampler.endOfTimestep(currentTimestep);
+			writeSnapshotQuietly();
+		}
+		currentTimestep = timestep;
+		started = true;
+		sampler.edge(source, target, time);
+	}
+
+	private void pollRequests() {
+		if (index != null && System.nanoTime() - lastPublish >= publishNanos)
+			publish();
+		if (trigger != null && trigger.exists()) {
+			trigger.delete();
+			snapshotRequested = true;
+		}
+		if (snapshotRequested) {
+			snapshotRequested = false;
+			writeSnapshotQuietly();
+		}
+	}
+
+	private void writeSnapshotQuietly() {
+		try {
+			writeSnapshot();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void publish() {
+		index.update();
+		lastPublish = System.nanoTime();
+	}
+
+	private void writeSnapshot() throws IOException {
+		if (index != null)
+			publish();
+		snapshotNumber++;
+		if (deltaWriter != null)
+			deltaWriter.write(snapshotNumber);
+		else if (binaryWriter != null)
+			binaryWriter.write(sampler, currentTimestep, new File(outputFolder, snapshotNumber + ".snap"));
+		else
+			snapshots.write(sampler, new File(outputFolder, String.valueOf(snapshotNumber)));
+		System.out.println("Snapshot " + snapshotNumber + " : " + sampler.size() + " edges");
+	}
+
+	private static void sleep() {
+		try {
+			Thread.sleep(POLL_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
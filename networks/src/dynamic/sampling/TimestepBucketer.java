@@ -0,0 +1,68 @@
+/* Maps the time of an edge to the id of its timestep, so samplers detect a timestep change by comparing two longs.
+ * The time is the TIMESTAMP column as parsed by the edge readers: yyyy-MM-dd HH:mm:ss arrives as yyyyMMddHHmmss,
+ * a numeric epoch timestamp as the number itself. Bucketing is plain arithmetic, nothing is parsed or allocated,
+ * and the instances hold no mutable state so they can be shared between threads.
+ * MONTH, DAY and HOUR cut calendar units of yyyy-MM-dd HH:mm:ss, seconds(width) cuts windows of any width in seconds
+ * counted from 1970-01-01 00:00:00, epochSeconds(width) does the same for numeric epoch timestamps.
+ * Override bucket for any other granularity.
+ */
+package dynamic.sampling;
+
+public class TimestepBucketer {
+	public static final TimestepBucketer MONTH = new TimestepBucketer(100000000L, 0);
+	public static final TimestepBucketer DAY = new TimestepBucketer(1000000L, 0);
+	public static final TimestepBucketer HOUR = new TimestepBucketer(10000L, 0);
+
+	private final long divisor;
+	private final long width;
+
+	protected TimestepBucketer() {
+		this(1, 0);
+	}
+
+	private TimestepBucketer(long divisor, long width) {
+		this.divisor = divisor;
+		this.width = width;
+	}
+
+	/** Timesteps of width seconds over yyyy-MM-dd HH:mm:ss timestamps. */
+	public static TimestepBucketer seconds(long width) {
+		if (width <= 0)
+			throw new IllegalArgumentException("Timestep width must be positive: " + width);
+		return new TimestepBucketer(0, width);
+	}
+
+	/** Timesteps of width seconds over numeric epoch timestamps in seconds. */
+	public static TimestepBucketer epochSeconds(long width) {
+		if (width <= 0)
+			throw new IllegalArgumentException("Timestep width must be positive: " + width);
+		return new TimestepBucketer(width, 0);
+	}
+
+	public long bucket(long time) {
+		if (width > 0)
+			return Math.floorDiv(toEpochSeconds(time), width);
+		return time / divisor;
+	}
+
+	/** Seconds since 1970-01-01 00:00:00 of a yyyyMMddHHmmss number. */
+	public static long toEpochSeconds(long packed) {
+		long second = packed % 100;
+		long minute = packed / 100 % 100;
+		long hour = packed / 10000 % 100;
+		long day = packed / 1000000 % 100;
+		long month = packed / 100000000 % 100;
+		long year = packed / 10000000000L;
+		return ((daysFromCivil(year, month, day) * 24 + hour) * 60 + minute) * 60 + second;
+	}
+
+	// days since 1970-01-01 in the proleptic Gregorian calendar, counting years from March
+	private static long daysFromCivil(long year, long month, long day) {
+		year -= month <= 2 ? 1 : 0;
+		long era = Math.floorDiv(year, 400);
+		long yearOfEra = year - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+}